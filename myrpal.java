@@ -3,9 +3,11 @@ import java.io.IOException;
 
 import src.AST;
 import src.CSEM;
+import src.Interpreter;
 import src.ParseException;
 import src.Parser;
 import src.Scanner;
+import src.VM;
 
 // Main class for RPAL interpreter
 public class myrpal {
@@ -13,6 +15,30 @@ public class myrpal {
   // File name to process
   public static String fileName;
 
+  // Run the program on the bytecode VM instead of the CSE machine
+  private static boolean vmFlag;
+
+  // Compile hot deltas to JVM bytecode, implies vmFlag
+  private static boolean jitFlag;
+
+  // Run the program on the self-specializing tree interpreter
+  private static boolean treeFlag;
+
+  // Cache the results of pure recursive functions on the CSE machine
+  private static boolean memoFlag;
+
+  // Evaluate the standardized AST as it is, without inlining or folding its constants
+  private static boolean noOptFlag;
+
+  // Print the standardized AST with the effect of each node
+  private static boolean effectsFlag;
+
+  // Evaluate the costly elements of the tuples in parallel on the CSE machine
+  private static boolean parFlag;
+
+  // Scan the source file mapped in memory instead of reading it character by character
+  private static boolean mmapFlag;
+
   // Main method
   public static void main(String[] args) {
     // Flags for AST and ST options
@@ -27,12 +53,29 @@ public class myrpal {
         astFlag = true;
       else if (cmdOption.equals("-st"))
         stFlag = true;
+      else if (cmdOption.equals("-vm"))
+        vmFlag = true;
+      else if (cmdOption.equals("-jit")) {
+        vmFlag = true;
+        jitFlag = true;
+      } else if (cmdOption.equals("-tree"))
+        treeFlag = true;
+      else if (cmdOption.equals("-memo"))
+        memoFlag = true;
+      else if (cmdOption.equals("-noopt"))
+        noOptFlag = true;
+      else if (cmdOption.equals("-effects"))
+        effectsFlag = true;
+      else if (cmdOption.equals("-par"))
+        parFlag = true;
+      else if (cmdOption.equals("-mmap"))
+        mmapFlag = true;
       else
         fileName = cmdOption;
     }
 
     // If no flags are set, only print the result
-    if (!astFlag && !stFlag) {
+    if (!astFlag && !stFlag && !effectsFlag) {
       ast = buildAST(fileName, true);
       ast.standardize();
       evaluateST(ast);
@@ -58,12 +101,36 @@ public class myrpal {
       printAST(ast);
       evaluateST(ast);
     }
+
+    // If the effects flag is set, print the standardized AST with its effects and result
+    if (effectsFlag) {
+      if (fileName.isEmpty())
+        throw new ParseException("Input a relevant file.");
+      ast = buildAST(fileName, true);
+      ast.standardize();
+      ast.printEffects();
+      evaluateST(ast);
+    }
   }
 
-  // Evaluate the standardized AST using CSEM and print the result
+  // Evaluate the standardized AST using CSEM (or the VM, or the tree interpreter) and print the result
   private static void evaluateST(AST ast) {
-    CSEM csem = new CSEM(ast);
-    csem.evaluateProgram();
+    if (!noOptFlag) {
+      ast.inline();
+      ast.liftLambdas();
+      ast.simplify();
+      ast.eliminateCommonSubexpressions();
+    }
+    if (treeFlag) {
+      Interpreter interpreter = new Interpreter(ast);
+      interpreter.evaluateProgram();
+    } else if (vmFlag) {
+      VM vm = new VM(ast, jitFlag);
+      vm.evaluateProgram();
+    } else {
+      CSEM csem = new CSEM(ast, memoFlag, parFlag);
+      csem.evaluateProgram();
+    }
     System.out.println();
   }
 
@@ -71,7 +138,7 @@ public class myrpal {
   private static AST buildAST(String fileName, boolean printOutput) {
     AST ast = null;
     try {
-      Scanner scanner = new Scanner(fileName);
+      Scanner scanner = new Scanner(fileName, mmapFlag);
       Parser parser = new Parser(scanner);
       ast = parser.buildAST();
     } catch (IOException e) {
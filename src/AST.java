@@ -13,6 +13,8 @@ public class AST {
   private int deltaIndex; // Index for deltas
   private boolean standardized; // Indicates whether the AST is standardized
   private ArrayDeque<PendingDelta> pendingDeltaQueue; // Queue for pending deltas
+  private boolean parallelTuples; // Whether costly tuple elements get bodies of their own
+  private EffectAnalysis effectAnalysis; // Effects of the standardized tree, once analyzed
 
   // Constructor
   public AST(ASTNode node) {
@@ -192,15 +194,21 @@ public class AST {
 
   // Method to create deltas
   public Delta createDeltas() {
+    return createDeltas(false);
+  }
+
+  // Method to create deltas, with ParallelTau nodes for the costly tuples when parallelTuples is set
+  public Delta createDeltas(boolean parallelTuples) {
+    this.parallelTuples = parallelTuples;
     pendingDeltaQueue = new ArrayDeque<PendingDelta>();
     deltaIndex = 0;
-    currentDelta = createDelta(root);
+    currentDelta = createDelta(root, null);
     processPendingDeltaStack();
     return rootDelta;
   }
 
   // Method to create a delta starting from a given body node
-  private Delta createDelta(ASTNode startBodyNode) {
+  private Delta createDelta(ASTNode startBodyNode, Delta enclosingDelta) {
     PendingDelta pendingDelta = new PendingDelta();
     pendingDelta.startNode = startBodyNode;
     pendingDelta.body = new Stack<ASTNode>();
@@ -209,10 +217,15 @@ public class AST {
     Delta d = new Delta();
     d.setBody(pendingDelta.body);
     d.setIndex(deltaIndex++);
+    d.setEnclosingDelta(enclosingDelta);
+    pendingDelta.delta = d;
     currentDelta = d;
 
-    if (startBodyNode == root)
+    if (startBodyNode == root) {
       rootDelta = currentDelta;
+      if (effectAnalysis != null)
+        rootDelta.setEffect(effectAnalysis.getProgramEffect());
+    }
 
     return d;
   }
@@ -221,13 +234,16 @@ public class AST {
   private void processPendingDeltaStack() {
     while (!pendingDeltaQueue.isEmpty()) {
       PendingDelta pendingDelta = pendingDeltaQueue.pop();
-      buildDeltaBody(pendingDelta.startNode, pendingDelta.body);
+      buildDeltaBody(pendingDelta.startNode, pendingDelta.body, pendingDelta.delta);
+      pendingDelta.delta.freeze();
     }
   }
 
-  private void buildDeltaBody(ASTNode node, Stack<ASTNode> body) {
+  private void buildDeltaBody(ASTNode node, Stack<ASTNode> body, Delta delta) {
     if (node.getType() == ASTNodeType.LAMBDA) {
-      Delta d = createDelta(node.getChild().getSibling());
+      Delta d = createDelta(node.getChild().getSibling(), delta);
+      if (effectAnalysis != null)
+        d.setEffect(effectAnalysis.callEffectOf(node));
       if (node.getChild().getType() == ASTNodeType.COMMA) {
         ASTNode commaNode = node.getChild();
         ASTNode childNode = commaNode.getChild();
@@ -246,56 +262,225 @@ public class AST {
 
       Beta betaNode = new Beta();
 
-      buildDeltaBody(thenNode, betaNode.getThenPart());
-      buildDeltaBody(elseNode, betaNode.getElsePart());
+      buildDeltaBody(thenNode, betaNode.getThenPart(), delta);
+      buildDeltaBody(elseNode, betaNode.getElsePart(), delta);
+      betaNode.freeze();
 
       body.push(betaNode);
 
-      buildDeltaBody(conditionNode, body);
+      buildDeltaBody(conditionNode, body, delta);
 
+      return;
+    } else if (Constant.isConstant(node)) {
+      body.push(new Constant(node));
+      return;
+    } else if (node.getType() == ASTNodeType.IDENTIFIER) {
+      if (isIntrinsic(node, delta))
+        body.push(new IntrinsicNode(node.getValue(), false));
+      else
+        body.push(resolveVariable(node.getValue(), delta));
+      return;
+    } else if (node.getType() == ASTNodeType.GAMMA && buildIntrinsicCall(node, body, delta)) {
       return;
     }
 
-    body.push(node);
+    if (node.getType() == ASTNodeType.TAU) {
+      if (parallelTuples) {
+        buildParallelTau(node, body, delta);
+        return;
+      }
+      body.push(new Tau(node));
+    } else
+      body.push(node);
     ASTNode childNode = node.getChild();
     while (childNode != null) {
-      buildDeltaBody(childNode, body);
+      buildDeltaBody(childNode, body, delta);
       childNode = childNode.getSibling();
     }
   }
 
+  // Builds each element of the tuple on its own control, the tuple becomes a ParallelTau
+  // when at least two of them make applications, otherwise the elements are pushed as usual
+  @SuppressWarnings("unchecked")
+  private void buildParallelTau(ASTNode node, Stack<ASTNode> body, Delta delta) {
+    List<Stack<ASTNode>> elements = new ArrayList<Stack<ASTNode>>();
+    for (ASTNode childNode = node.getChild(); childNode != null; childNode = childNode.getSibling()) {
+      Stack<ASTNode> element = new Stack<ASTNode>();
+      buildDeltaBody(childNode, element, delta);
+      elements.add(element);
+    }
+
+    boolean[] expensive = new boolean[elements.size()];
+    Effect[] effects = new Effect[elements.size()];
+    int numExpensive = 0;
+    int i = 0;
+    for (ASTNode childNode = node.getChild(); childNode != null; childNode = childNode.getSibling(), i++) {
+      expensive[i] = isExpensive(elements.get(i));
+      if (expensive[i])
+        numExpensive++;
+      effects[i] = effectAnalysis != null ? effectAnalysis.effectOf(childNode) : Effect.EFFECTFUL;
+    }
+    if (numExpensive >= 2) {
+      body.push(new ParallelTau(elements, expensive, effects));
+      return;
+    }
+
+    body.push(new Tau(node));
+    for (Stack<ASTNode> element : elements)
+      body.addAll(element);
+  }
+
+  // Only the elements making an application can take longer than forking a task
+  private static boolean isExpensive(Stack<ASTNode> body) {
+    for (ASTNode node : body) {
+      if (node.getType() == ASTNodeType.GAMMA || node.getType() == ASTNodeType.PARALLEL_TAU)
+        return true;
+      if (node.getType() == ASTNodeType.BETA
+          && (isExpensive(((Beta) node).getThenPart()) || isExpensive(((Beta) node).getElsePart())))
+        return true;
+    }
+    return false;
+  }
+
+  // An application of a built-in function to all of its arguments becomes a single
+  // INTRINSIC_CALL node, Conc a b included: no Builtin value, no partial application.
+  // Gives false, having pushed nothing, for any other application
+  private boolean buildIntrinsicCall(ASTNode gammaNode, Stack<ASTNode> body, Delta delta) {
+    List<ASTNode> arguments = new ArrayList<ASTNode>();
+    ASTNode rator = gammaNode;
+    while (rator.getType() == ASTNodeType.GAMMA) {
+      arguments.add(0, rator.getChild().getSibling());
+      rator = rator.getChild();
+      if (isIntrinsic(rator, delta)) {
+        if (Intrinsic.forName(rator.getValue()).getArity() != arguments.size())
+          return false;
+        body.push(new IntrinsicNode(rator.getValue(), true));
+        for (ASTNode argument : arguments)
+          buildDeltaBody(argument, body, delta);
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether the node names a built-in function no binding hides
+  private boolean isIntrinsic(ASTNode node, Delta delta) {
+    return node.getType() == ASTNodeType.IDENTIFIER && Primitives.isReservedIdentifier(node.getValue())
+        && !isBound(node.getValue(), delta);
+  }
+
+  // Resolves an identifier for flat closures: a variable bound by the delta is at depth 0,
+  // a free one is captured by the closure and found at depth 1, in the environment
+  // holding the captured values. Names bound nowhere are left for the built-ins.
+  private Variable resolveVariable(String name, Delta delta) {
+    int slot = delta.getBoundVars().lastIndexOf(name);
+    if (slot >= 0)
+      return new Variable(name, 0, slot);
+    if (!isBound(name, delta.getEnclosingDelta()))
+      return new Variable(name, Variable.UNBOUND, Variable.UNBOUND);
+
+    List<Variable> freeVariables = delta.getFreeVariables();
+    for (int i = 0; i < freeVariables.size(); i++)
+      if (freeVariables.get(i).getValue().equals(name))
+        return new Variable(name, 1, i);
+    // the closure copies the value from the environment of the enclosing delta
+    freeVariables.add(resolveVariable(name, delta.getEnclosingDelta()));
+    return new Variable(name, 1, freeVariables.size() - 1);
+  }
+
+  private boolean isBound(String name, Delta delta) {
+    for (Delta d = delta; d != null; d = d.getEnclosingDelta())
+      if (d.getBoundVars().contains(name))
+        return true;
+    return false;
+  }
+
   private class PendingDelta {
     Stack<ASTNode> body;
     ASTNode startNode;
+    Delta delta;
   }
 
   public boolean isStandardized() {
     return standardized;
   }
 
+  // Method to inline the small functions and trivial bindings of the standardized AST, see Inliner
+  public void inline() {
+    if (!standardized)
+      throw new RuntimeException("AST is not standardized!");
+    new Inliner().inline(root);
+  }
+
+  // Method to lift the definitions out of the functions they do not depend on, see LambdaLifter
+  public void liftLambdas() {
+    if (!standardized)
+      throw new RuntimeException("AST is not standardized!");
+    new LambdaLifter().lift(root);
+  }
+
+  // Method to fold the constants and simplify the standardized AST, see Simplifier
+  public void simplify() {
+    if (!standardized)
+      throw new RuntimeException("AST is not standardized!");
+    new Simplifier().simplify(root);
+  }
+
+  // Method to evaluate the common pure subexpressions once, see SubexpressionEliminator
+  public void eliminateCommonSubexpressions() {
+    if (!standardized)
+      throw new RuntimeException("AST is not standardized!");
+    new SubexpressionEliminator(root).eliminate(root);
+  }
+
+  // Method to analyze the effects of the standardized tree, the deltas created
+  // afterwards carry the effect of applying them
+  public EffectAnalysis analyzeEffects() {
+    if (!standardized)
+      throw new RuntimeException("AST is not standardized!");
+    effectAnalysis = new EffectAnalysis(root);
+    return effectAnalysis;
+  }
+
+  public EffectAnalysis getEffectAnalysis() {
+    return effectAnalysis;
+  }
+
+  // Method to print the standardized AST with the effect of each node, the effect of
+  // applying them for the lambdas
+  public void printEffects() {
+    EffectAnalysis effects = effectAnalysis != null ? effectAnalysis : analyzeEffects();
+    preOrderPrint(root, "", effects);
+  }
+
   // Method to print the AST
   public void print() {
-    preOrderPrint(root, "");
+    preOrderPrint(root, "", null);
   }
 
   // Recursive method to print the AST in pre-order traversal
-  private void preOrderPrint(ASTNode node, String printPrefix) {
+  private void preOrderPrint(ASTNode node, String printPrefix, EffectAnalysis effects) {
     if (node == null)
       return;
 
-    printASTNodeDetails(node, printPrefix);
-    preOrderPrint(node.getChild(), printPrefix + ".");
-    preOrderPrint(node.getSibling(), printPrefix);
+    printASTNodeDetails(node, printPrefix, effects);
+    preOrderPrint(node.getChild(), printPrefix + ".", effects);
+    preOrderPrint(node.getSibling(), printPrefix, effects);
   }
 
-  private void printASTNodeDetails(ASTNode node, String printPrefix) {
+  private void printASTNodeDetails(ASTNode node, String printPrefix, EffectAnalysis effects) {
+    String suffix = "";
+    if (effects != null && node.getType() == ASTNodeType.LAMBDA)
+      suffix = " [" + effects.callEffectOf(node) + " when applied]";
+    else if (effects != null)
+      suffix = " [" + effects.effectOf(node) + "]";
     if (node.getType() == ASTNodeType.IDENTIFIER ||
         node.getType() == ASTNodeType.INTEGER) {
-      System.out.printf(printPrefix + node.getType().getPrintName() + "\n", node.getValue());
+      System.out.printf(printPrefix + node.getType().getPrintName() + suffix + "\n", node.getValue());
     } else if (node.getType() == ASTNodeType.STRING)
-      System.out.printf(printPrefix + node.getType().getPrintName() + "\n", node.getValue());
+      System.out.printf(printPrefix + node.getType().getPrintName() + suffix + "\n", node.getValue());
     else
-      System.out.println(printPrefix + node.getType().getPrintName());
+      System.out.println(printPrefix + node.getType().getPrintName() + suffix);
   }
 }
 
@@ -341,10 +526,6 @@ class ASTNode {
     this.value = value;
   }
 
-  public ASTNode accept(Copier copier) {
-    return copier.copy(this);
-  }
-
 }
 
 // Contains the AST Node Types
@@ -390,7 +571,12 @@ enum ASTNodeType {
   BETA(""),
   DELTA(""),
   ETA(""),
-  TUPLE("");
+  TUPLE(""),
+  MEMO_STORE(""),
+  PARALLEL_TAU(""),
+  TUPLE_JOIN(""),
+  INTRINSIC(""),
+  INTRINSIC_CALL("");
 
   private String printName;
 
@@ -405,22 +591,17 @@ enum ASTNodeType {
 
 class Delta extends ASTNode {
   private List<String> boundVars;
-  private Environment linkedEnvironment;
   private Stack<ASTNode> body;
+  private ASTNode[] code;
   private int index;
+  private Delta enclosingDelta; // Delta whose body contains this one, null for the root
+  private List<Variable> freeVariables; // Captured by the closures, resolved in the enclosing delta
+  private Effect effect = Effect.EFFECTFUL; // Effect of applying the closures, see EffectAnalysis
 
   public Delta() {
     setType(ASTNodeType.DELTA);
     boundVars = new ArrayList<String>();
-  }
-
-  public Delta accept(Copier copier) {
-    return copier.copy(this);
-  }
-
-  @Override
-  public String getValue() {
-    return "[lambda closure: " + boundVars.get(0) + ": " + index + "]";
+    freeVariables = new ArrayList<Variable>();
   }
 
   public List<String> getBoundVars() {
@@ -443,6 +624,15 @@ class Delta extends ASTNode {
     this.body = body;
   }
 
+  public ASTNode[] getCode() {
+    return code;
+  }
+
+  // The body as an array once it is built, the CSE machine runs it from its end
+  public void freeze() {
+    code = body.toArray(new ASTNode[body.size()]);
+  }
+
   public int getIndex() {
     return index;
   }
@@ -451,11 +641,187 @@ class Delta extends ASTNode {
     this.index = index;
   }
 
-  public Environment getLinkedEnvironment() {
-    return linkedEnvironment;
+  public Delta getEnclosingDelta() {
+    return enclosingDelta;
+  }
+
+  public void setEnclosingDelta(Delta enclosingDelta) {
+    this.enclosingDelta = enclosingDelta;
   }
 
-  public void setLinkedEnvironment(Environment linkedEnvironment) {
-    this.linkedEnvironment = linkedEnvironment;
+  public List<Variable> getFreeVariables() {
+    return freeVariables;
   }
-}
\ No newline at end of file
+
+  public Effect getEffect() {
+    return effect;
+  }
+
+  public void setEffect(Effect effect) {
+    this.effect = effect;
+  }
+}
+
+// Class representing Beta nodes used for evaluating conditionals
+class Beta extends ASTNode {
+  private Stack<ASTNode> thenPart;
+  private Stack<ASTNode> elsePart;
+  private ASTNode[] thenCode;
+  private ASTNode[] elseCode;
+
+  public Beta() {
+    setType(ASTNodeType.BETA);
+    thenPart = new Stack<ASTNode>();
+    elsePart = new Stack<ASTNode>();
+  }
+
+  public Stack<ASTNode> getThenPart() {
+    return thenPart;
+  }
+
+  public Stack<ASTNode> getElsePart() {
+    return elsePart;
+  }
+
+  public void setThenPart(Stack<ASTNode> thenPart) {
+    this.thenPart = thenPart;
+  }
+
+  public void setElsePart(Stack<ASTNode> elsePart) {
+    this.elsePart = elsePart;
+  }
+
+  public ASTNode[] getThenCode() {
+    return thenCode;
+  }
+
+  public ASTNode[] getElseCode() {
+    return elseCode;
+  }
+
+  // The parts as arrays once they are built, the CSE machine runs them from their end
+  public void freeze() {
+    thenCode = thenPart.toArray(new ASTNode[thenPart.size()]);
+    elseCode = elsePart.toArray(new ASTNode[elsePart.size()]);
+  }
+}
+
+// Class representing tau nodes on the control, with the number of elements counted once
+class Tau extends ASTNode {
+  private final int numElements;
+
+  public Tau(ASTNode tauNode) {
+    setType(ASTNodeType.TAU);
+    int count = 0;
+    for (ASTNode childNode = tauNode.getChild(); childNode != null; childNode = childNode.getSibling())
+      count++;
+    numElements = count;
+  }
+
+  public int getNumElements() {
+    return numElements;
+  }
+}
+
+// Class representing identifiers on the control, resolved to the position of their binding:
+// the number of environments to walk up and the slot in that environment
+class Variable extends ASTNode {
+  public static final int UNBOUND = -1;
+
+  private final int depth;
+  private final int slot;
+
+  public Variable(String name, int depth, int slot) {
+    setType(ASTNodeType.IDENTIFIER);
+    setValue(name);
+    this.depth = depth;
+    this.slot = slot;
+  }
+
+  public boolean isBound() {
+    return depth != UNBOUND;
+  }
+
+  public int getDepth() {
+    return depth;
+  }
+
+  public int getSlot() {
+    return slot;
+  }
+}
+
+// Class representing the built-in functions on the control, resolved when the deltas are
+// created. An INTRINSIC node gives the function as a value, an INTRINSIC_CALL node applies
+// it to as many arguments as its arity, evaluated by the nodes that follow it on the
+// control, the last argument first.
+class IntrinsicNode extends ASTNode {
+  private final Builtin builtin; // The function as a value, shared since it holds no argument
+
+  public IntrinsicNode(String name, boolean call) {
+    setType(call ? ASTNodeType.INTRINSIC_CALL : ASTNodeType.INTRINSIC);
+    setValue(name);
+    builtin = new Builtin(name);
+  }
+
+  public Intrinsic getIntrinsic() {
+    return builtin.getIntrinsic();
+  }
+
+  public Builtin getBuiltin() {
+    return builtin;
+  }
+}
+
+// Class representing literals on the control, holding their runtime value
+// so that the CSE machine does not convert the literal text on every use
+class Constant extends ASTNode {
+  private final Value constant;
+
+  public Constant(ASTNode literalNode) {
+    setType(literalNode.getType());
+    setValue(literalNode.getValue());
+    switch (literalNode.getType()) {
+      case INTEGER:
+        constant = IntegerValue.of(Long.parseLong(literalNode.getValue()));
+        break;
+      case STRING:
+        constant = new StringValue(literalNode.getValue());
+        break;
+      case TRUE:
+        constant = TruthValue.TRUE;
+        break;
+      case FALSE:
+        constant = TruthValue.FALSE;
+        break;
+      case DUMMY:
+        constant = DummyValue.DUMMY;
+        break;
+      case NIL:
+        constant = Tuple.NIL;
+        break;
+      default:
+        constant = YStar.YSTAR;
+        break;
+    }
+  }
+
+  public static boolean isConstant(ASTNode node) {
+    switch (node.getType()) {
+      case INTEGER:
+      case STRING:
+      case TRUE:
+      case FALSE:
+      case DUMMY:
+      case NIL:
+      case YSTAR:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  public Value getConstant() {
+    return constant;
+  }
+}
@@ -1,392 +1,393 @@
 package src;
 
-import java.util.Stack;
-
+import java.util.Arrays;
+
+// CSE machine following the textbook design: a control, a value stack and an
+// environment stack. The control is not copied from the bodies: the delta bodies and
+// the parts of the conditionals are frozen into arrays, and the machine runs the
+// current one through a cursor, keeping the unfinished ones with their environment on
+// a frame stack, so entering a function or a branch costs the same whatever its size.
+// A delta body plays the part of the environment marker: the environment of its
+// caller comes back once it is finished. The stacks are plain arrays owned by the
+// machine, see ValueStack. Function application never recurses on the Java stack, so
+// the depth of RPAL recursion is only limited by the heap.
 public class CSEM {
-
-  private Stack<ASTNode> CSEStack;
+  private static final ASTNode[] NO_CODE = new ASTNode[0];
+  private static final ASTNode[] ETA_APPLICATIONS = etaApplications(); // CSE rule 13
+
+  private ValueStack CSEStack;
+  private ASTNode[] code; // Body being evaluated, from its end like the control it stands for
+  private int pc; // Number of nodes of code left to evaluate
+  private boolean releasesEnvironment; // Whether code is a delta body, its environment is released once done
+  private Environment env; // Current environment
+  private ASTNode[][] frameCodes; // Frame stack of the bodies left unfinished
+  private int[] framePcs;
+  private boolean[] frameReleases;
+  private Environment[] frameEnvironments;
+  private int frameCount;
   private Delta rootDelta;
+  private Environment primitiveEnvironment;
+  private FramePool framePool; // Environments of the applications, closures never keep them
+  private Memoizer memoizer; // Results of rec functions in the -memo mode, null otherwise
 
   public CSEM(AST ast) {
+    this(ast, false);
+  }
+
+  public CSEM(AST ast, boolean memoize) {
+    this(ast, memoize, false);
+  }
+
+  public CSEM(AST ast, boolean memoize, boolean parallel) {
     if (!ast.isStandardized())
       throw new RuntimeException("AST is not standardized!"); // AsT should be standardized earlier
-    rootDelta = ast.createDeltas();
-    rootDelta.setLinkedEnvironment(new Environment()); // primitive environment
-    CSEStack = new Stack<ASTNode>();
+    if (memoize || parallel)
+      ast.analyzeEffects(); // the deltas carry the effects the Memoizer and ParallelTau rely on
+    rootDelta = ast.createDeltas(parallel);
+    primitiveEnvironment = new Environment(null, 0);
+    CSEStack = new ValueStack();
+    initControl(NO_CODE);
+    framePool = new FramePool();
+    if (memoize)
+      memoizer = new Memoizer();
+  }
+
+  // Machine evaluating a single element of a ParallelTau, see TupleTask
+  CSEM(ASTNode[] body, Environment env, Memoizer memoizer) {
+    CSEStack = new ValueStack();
+    initControl(body);
+    framePool = new FramePool();
+    this.memoizer = memoizer;
+    this.env = env;
+  }
+
+  private void initControl(ASTNode[] body) {
+    code = body;
+    pc = body.length;
+    frameCodes = new ASTNode[64][];
+    framePcs = new int[64];
+    frameReleases = new boolean[64];
+    frameEnvironments = new Environment[64];
+  }
+
+  private static ASTNode[] etaApplications() {
+    ASTNode gamma = new ASTNode();
+    gamma.setType(ASTNodeType.GAMMA);
+    return new ASTNode[] {gamma, gamma};
   }
 
   // processing for arithmetic operations
   private void binaryArithmeticOp(ASTNodeType type) {
-    ASTNode rand1 = CSEStack.pop();
-    ASTNode rand2 = CSEStack.pop();
-
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
+    long rand1 = CSEStack.popInt();
+    long rand2 = CSEStack.popInt();
 
     switch (type) {
       case PLUS:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue()) + Integer.parseInt(rand2.getValue())));
+        CSEStack.pushInt(rand1 + rand2);
         break;
       case MINUS:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue()) - Integer.parseInt(rand2.getValue())));
+        CSEStack.pushInt(rand1 - rand2);
         break;
       case MULT:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue()) * Integer.parseInt(rand2.getValue())));
+        CSEStack.pushInt(rand1 * rand2);
         break;
       case DIV:
-        result.setValue(Integer.toString(Integer.parseInt(rand1.getValue()) / Integer.parseInt(rand2.getValue())));
+        CSEStack.pushInt(rand1 / rand2);
         break;
       case EXP:
-        result.setValue(
-            Integer.toString((int) Math.pow(Integer.parseInt(rand1.getValue()), Integer.parseInt(rand2.getValue()))));
+        CSEStack.pushInt(Primitives.power(rand1, rand2));
         break;
       case LS:
-        if (Integer.parseInt(rand1.getValue()) < Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        CSEStack.push(TruthValue.of(rand1 < rand2));
+        break;
       case LE:
-        if (Integer.parseInt(rand1.getValue()) <= Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        CSEStack.push(TruthValue.of(rand1 <= rand2));
+        break;
       case GR:
-        if (Integer.parseInt(rand1.getValue()) > Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        CSEStack.push(TruthValue.of(rand1 > rand2));
+        break;
       case GE:
-        if (Integer.parseInt(rand1.getValue()) >= Integer.parseInt(rand2.getValue()))
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return;
+        CSEStack.push(TruthValue.of(rand1 >= rand2));
+        break;
       default:
         break;
     }
-    CSEStack.push(result);
   }
 
   // processing for eq, ne
   private void binaryLogicalEqNeOp(ASTNodeType type) {
-    ASTNode rand1 = CSEStack.pop();
-    ASTNode rand2 = CSEStack.pop();
+    if (CSEStack.holdsIntegers(2)) {
+      long rand1 = CSEStack.popInt();
+      pushTruthValue((rand1 == CSEStack.popInt()) == (type == ASTNodeType.EQ));
+      return;
+    }
+    Value rand1 = CSEStack.pop();
+    Value rand2 = CSEStack.pop();
 
-    if (rand1.getType() == ASTNodeType.TRUE || rand1.getType() == ASTNodeType.FALSE) {
+    if (rand1.getType() == ValueType.TRUE || rand1.getType() == ValueType.FALSE) {
       compareTruthValues(rand1, rand2, type);
       return;
     }
 
-    if (rand1.getType() == ASTNodeType.STRING)
+    if (rand1.getType() == ValueType.STRING)
       compareStrings(rand1, rand2, type);
-    else if (rand1.getType() == ASTNodeType.INTEGER)
+    else if (rand1.getType() == ValueType.INTEGER)
       compareIntegers(rand1, rand2, type);
 
   }
 
-  private void compareTruthValues(ASTNode rand1, ASTNode rand2, ASTNodeType type) {
-    if (rand1.getType() == rand2.getType())
-      if (type == ASTNodeType.EQ)
-        pushTrueNode();
-      else
-        pushFalseNode();
-    else if (type == ASTNodeType.EQ)
-      pushFalseNode();
-    else
-      pushTrueNode();
+  private void compareTruthValues(Value rand1, Value rand2, ASTNodeType type) {
+    pushTruthValue((rand1 == rand2) == (type == ASTNodeType.EQ));
   }
 
-  private void compareStrings(ASTNode rand1, ASTNode rand2, ASTNodeType type) {
-    if (rand1.getValue().equals(rand2.getValue()))
-      if (type == ASTNodeType.EQ)
-        pushTrueNode();
-      else
-        pushFalseNode();
-    else if (type == ASTNodeType.EQ)
-      pushFalseNode();
+  private void compareStrings(Value rand1, Value rand2, ASTNodeType type) {
+    boolean equal;
+    if (rand2 instanceof StringValue)
+      equal = ((StringValue) rand1).contentEquals((StringValue) rand2);
     else
-      pushTrueNode();
+      equal = rand1.toString().equals(rand2.toString());
+    pushTruthValue(equal == (type == ASTNodeType.EQ));
   }
 
-  private void compareIntegers(ASTNode rand1, ASTNode rand2, ASTNodeType type) {
-    if (Integer.parseInt(rand1.getValue()) == Integer.parseInt(rand2.getValue()))
-      if (type == ASTNodeType.EQ)
-        pushTrueNode();
-      else
-        pushFalseNode();
-    else if (type == ASTNodeType.EQ)
-      pushFalseNode();
-    else
-      pushTrueNode();
+  private void compareIntegers(Value rand1, Value rand2, ASTNodeType type) {
+    boolean equal = ((IntegerValue) rand1).getInt() == ((IntegerValue) rand2).getInt();
+    pushTruthValue(equal == (type == ASTNodeType.EQ));
   }
 
   // processing for or, and
   private void binaryLogicalOrAndOp(ASTNodeType type) {
-    ASTNode rand1 = CSEStack.pop();
-    ASTNode rand2 = CSEStack.pop();
+    Value rand1 = CSEStack.pop();
+    Value rand2 = CSEStack.pop();
 
-    if ((rand1.getType() == ASTNodeType.TRUE || rand1.getType() == ASTNodeType.FALSE) &&
-        (rand2.getType() == ASTNodeType.TRUE || rand2.getType() == ASTNodeType.FALSE)) {
-      orAndTruthValues(rand1, rand2, type);
+    if (rand1 instanceof TruthValue && rand2 instanceof TruthValue) {
+      orAndTruthValues((TruthValue) rand1, (TruthValue) rand2, type);
       return;
     }
 
   }
 
-  private void orAndTruthValues(ASTNode rand1, ASTNode rand2, ASTNodeType type) {
-    if (type == ASTNodeType.OR) {
-      if (rand1.getType() == ASTNodeType.TRUE || rand2.getType() == ASTNodeType.TRUE)
-        pushTrueNode();
-      else
-        pushFalseNode();
-    } else {
-      if (rand1.getType() == ASTNodeType.TRUE && rand2.getType() == ASTNodeType.TRUE)
-        pushTrueNode();
-      else
-        pushFalseNode();
-    }
+  private void orAndTruthValues(TruthValue rand1, TruthValue rand2, ASTNodeType type) {
+    if (type == ASTNodeType.OR)
+      pushTruthValue(rand1.getBoolean() || rand2.getBoolean());
+    else
+      pushTruthValue(rand1.getBoolean() && rand2.getBoolean());
   }
 
   // processing for aug
   private void augTuples() {
-    ASTNode rand1 = CSEStack.pop();
-    ASTNode rand2 = CSEStack.pop();
+    Tuple rand1 = (Tuple) CSEStack.pop();
+    Value rand2 = CSEStack.pop();
 
-    ASTNode childNode = rand1.getChild();
-    if (childNode == null)
-      rand1.setChild(rand2);
-    else {
-      while (childNode.getSibling() != null)
-        childNode = childNode.getSibling();
-      childNode.setSibling(rand2);
-    }
-    rand2.setSibling(null);
-
-    CSEStack.push(rand1);
+    CSEStack.push(rand1.append(rand2));
   }
 
   private void not() {
-    ASTNode rand = CSEStack.pop();
+    Value rand = CSEStack.pop();
 
-    if (rand.getType() == ASTNodeType.TRUE)
-      pushFalseNode();
-    else
-      pushTrueNode();
+    pushTruthValue(rand != TruthValue.TRUE);
   }
 
   // processing for neg
   private void neg() {
-    ASTNode rand = CSEStack.pop();
-
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
-    result.setValue(Integer.toString(-1 * Integer.parseInt(rand.getValue())));
-    CSEStack.push(result);
+    CSEStack.pushInt(-CSEStack.popInt());
   }
 
-  private boolean evaluateKeywords(ASTNode rator, ASTNode rand, Stack<ASTNode> existingControlStack) {
-    switch (rator.getValue()) {
-      case "Isstring":
-        checkTypeAndPushTrueOrFalse(rand, ASTNodeType.STRING);
-        return true;
-      case "Isinteger":
-        checkTypeAndPushTrueOrFalse(rand, ASTNodeType.INTEGER);
-        return true;
-      case "Isfunction":
-        checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DELTA);
-        return true;
-      case "Istruthvalue":
-        if (rand.getType() == ASTNodeType.TRUE || rand.getType() == ASTNodeType.FALSE)
-          pushTrueNode();
-        else
-          pushFalseNode();
-        return true;
-      case "Null":
+  // processing for a built-in function taking a single argument
+  private void evaluateKeywords(Intrinsic intrinsic, Value rand) {
+    switch (intrinsic) {
+      case ISSTRING:
+        checkTypeAndPushTrueOrFalse(rand, ValueType.STRING);
+        break;
+      case ISINTEGER:
+        checkTypeAndPushTrueOrFalse(rand, ValueType.INTEGER);
+        break;
+      case ISFUNCTION:
+        pushTruthValue(Primitives.isFunction(rand));
+        break;
+      case ISTRUTHVALUE:
+        pushTruthValue(rand instanceof TruthValue);
+        break;
+      case NULL:
         isNullTuple(rand);
-        return true;
-      case "Isdummy":
-        checkTypeAndPushTrueOrFalse(rand, ASTNodeType.DUMMY);
-        return true;
-      case "Istuple":
-        checkTypeAndPushTrueOrFalse(rand, ASTNodeType.TUPLE);
-        return true;
-      case "Stem":
+        break;
+      case ISDUMMY:
+        checkTypeAndPushTrueOrFalse(rand, ValueType.DUMMY);
+        break;
+      case ISTUPLE:
+        checkTypeAndPushTrueOrFalse(rand, ValueType.TUPLE);
+        break;
+      case STEM:
         stem(rand);
-        return true;
-      case "Stern":
+        break;
+      case STERN:
         stern(rand);
-        return true;
-      case "Conc":
-      case "conc":
-        conc(rand, existingControlStack);
-        return true;
-      case "Print":
-      case "print":
+        break;
+      case PRINT:
         printNodeValue(rand);
-        pushDummyNode();
-        return true;
-      case "ItoS":
+        CSEStack.push(DummyValue.DUMMY);
+        break;
+      case ITOS:
         itos(rand);
-        return true;
-      case "Order":
+        break;
+      case ORDER:
         order(rand);
-        return true;
+        break;
+      case NEG:
+        CSEStack.pushInt(-((IntegerValue) rand).getInt());
+        break;
+      case LENGTH:
+        CSEStack.pushInt(StringValue.valueOf(rand).length());
+        break;
+      case SUBSTRING:
+        CSEStack.push(Primitives.substring((Tuple) rand));
+        break;
+      case INDEXOF:
+        CSEStack.push(Primitives.indexOf((Tuple) rand));
+        break;
       default:
-        return false;
+        throw new RuntimeException(intrinsic + " takes " + intrinsic.getArity() + " arguments");
     }
   }
 
-  private void checkTypeAndPushTrueOrFalse(ASTNode rand, ASTNodeType type) {
-    if (rand.getType() == type)
-      pushTrueNode();
-    else
-      pushFalseNode();
+  // A built-in function applied to all of its arguments, they are on the stack, the
+  // first one on top
+  private void callIntrinsic(IntrinsicNode node) {
+    Intrinsic intrinsic = node.getIntrinsic();
+    if (intrinsic == Intrinsic.CONC) {
+      Value rand1 = CSEStack.pop();
+      conc(rand1, CSEStack.pop());
+    } else
+      evaluateKeywords(intrinsic, CSEStack.pop());
   }
 
-  private void pushTrueNode() {
-    ASTNode trueNode = new ASTNode();
-    trueNode.setType(ASTNodeType.TRUE);
-    trueNode.setValue("true");
-    CSEStack.push(trueNode);
+  // A Builtin value applied to an argument, Conc waits for its second one
+  private void applyBuiltin(Builtin rator, Value rand) {
+    if (rator.getIntrinsic() != Intrinsic.CONC)
+      evaluateKeywords(rator.getIntrinsic(), rand);
+    else if (rator.getFirstArgument() == null)
+      CSEStack.push(new Builtin(rator.getName(), rand));
+    else
+      conc(rator.getFirstArgument(), rand);
   }
 
-  private void pushFalseNode() {
-    ASTNode falseNode = new ASTNode();
-    falseNode.setType(ASTNodeType.FALSE);
-    falseNode.setValue("false");
-    CSEStack.push(falseNode);
+  private void checkTypeAndPushTrueOrFalse(Value rand, ValueType type) {
+    pushTruthValue(rand.getType() == type);
   }
 
-  private void pushDummyNode() {
-    ASTNode falseNode = new ASTNode();
-    falseNode.setType(ASTNodeType.DUMMY);
-    CSEStack.push(falseNode);
+  private void pushTruthValue(boolean value) {
+    CSEStack.push(TruthValue.of(value));
   }
 
-  // processing for stem function
-  private void stem(ASTNode rand) {
+  // processing for stem function, the result shares the characters of rand
+  private void stem(Value rand) {
+    StringValue value = StringValue.valueOf(rand);
 
-    if (rand.getValue().isEmpty())
-      rand.setValue("");
+    if (value.length() == 0)
+      CSEStack.push(StringValue.EMPTY);
     else
-      rand.setValue(rand.getValue().substring(0, 1));
-
-    CSEStack.push(rand);
+      CSEStack.push(value.substring(0, 1));
   }
 
-  // processing ofr stern function
-  private void stern(ASTNode rand) {
+  // processing ofr stern function, the result shares the characters of rand
+  private void stern(Value rand) {
+    StringValue value = StringValue.valueOf(rand);
 
-    if (rand.getValue().isEmpty() || rand.getValue().length() == 1)
-      rand.setValue("");
+    if (value.length() <= 1)
+      CSEStack.push(StringValue.EMPTY);
     else
-      rand.setValue(rand.getValue().substring(1));
-
-    CSEStack.push(rand);
+      CSEStack.push(value.substring(1, value.length()));
   }
 
   // processing for conc function
-  private void conc(ASTNode rand1, Stack<ASTNode> currentControlStack) {
-    currentControlStack.pop();
-    ASTNode rand2 = CSEStack.pop();
-
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.STRING);
-    result.setValue(rand1.getValue() + rand2.getValue());
-
-    CSEStack.push(result);
+  private void conc(Value rand1, Value rand2) {
+    CSEStack.push(StringValue.concat(StringValue.valueOf(rand1), StringValue.valueOf(rand2)));
   }
 
-  private void itos(ASTNode rand) {
-    rand.setType(ASTNodeType.STRING);
-    CSEStack.push(rand);
+  private void itos(Value rand) {
+    CSEStack.push(new StringValue(rand.toString()));
   }
 
   // processing for order function
-  private void order(ASTNode rand) {
-
-    ASTNode result = new ASTNode();
-    result.setType(ASTNodeType.INTEGER);
-    result.setValue(Integer.toString(getNumChildren(rand)));
-
-    CSEStack.push(result);
+  private void order(Value rand) {
+    CSEStack.pushInt(getTupleSize(rand));
   }
 
   // processing for isNullTuple function
-  private void isNullTuple(ASTNode rand) {
-
-    if (getNumChildren(rand) == 0)
-      pushTrueNode();
-    else
-      pushFalseNode();
-  }
-
-  // Taking nth element of the tuple
-  private ASTNode getNthTupleChild(Tuple tupleNode, int n) {
-    ASTNode childNode = tupleNode.getChild();
-    for (int i = 1; i < n; ++i) { // index starting from 1
-      if (childNode == null)
-        break;
-      childNode = childNode.getSibling();
-    }
-    return childNode;
+  private void isNullTuple(Value rand) {
+    pushTruthValue(getTupleSize(rand) == 0);
   }
 
-  private void processIdentifiers(ASTNode node, Environment existingEnvironment) {
-    if (existingEnvironment.lookup(node.getValue()) != null) // CSE rule 1
-      CSEStack.push(existingEnvironment.lookup(node.getValue()));
-    else if (isReservedIdentifier(node.getValue()))
-      CSEStack.push(node);
+  private void processIdentifiers(Variable node, Environment existingEnvironment) {
+    if (node.isBound()) // CSE rule 1
+      CSEStack.push(existingEnvironment.lookup(node.getDepth(), node.getSlot()));
+    // the built-in functions are IntrinsicNodes, unknown names leave nothing on the stack
   }
 
   // CSE rule 3
-  private void applyGamma(Delta currentDelta, ASTNode node, Environment currentEnv,
-      Stack<ASTNode> currentControlStack) {
-    ASTNode rator = CSEStack.pop();
-    ASTNode rand = CSEStack.pop();
-
-    if (rator.getType() == ASTNodeType.DELTA) {
-      Delta nextDelta = (Delta) rator;
-      Environment newEnv = new Environment();
-      newEnv.setParent(nextDelta.getLinkedEnvironment());
-
-      // CSE rule 4
-      if (nextDelta.getBoundVars().size() == 1) {
-        newEnv.addMapping(nextDelta.getBoundVars().get(0), rand);
-      }
-      // CSE rule 11
-      else {
+  private void applyGamma() {
+    Value rator = CSEStack.pop();
+    Value rand = CSEStack.pop();
 
-        for (int i = 0; i < nextDelta.getBoundVars().size(); i++) {
-          newEnv.addMapping(nextDelta.getBoundVars().get(i), getNthTupleChild((Tuple) rand, i + 1));
+    switch (rator.getType()) {
+      case CLOSURE:
+        Closure closure = (Closure) rator;
+        // the -memo mode caches the applications of the rec functions
+        if (memoizer != null && closure.isFixedPoint() && memoize(memoizer.keyFor(closure, rand)))
+          return;
+        Delta nextDelta = closure.getDelta();
+        int numBoundVars = nextDelta.getBoundVars().size();
+        Environment newEnv = framePool.acquire(closure.getEnvironment(), numBoundVars);
+
+        // CSE rule 4
+        if (numBoundVars == 1) {
+          newEnv.bind(0, rand);
         }
-      }
+        // CSE rule 11
+        else {
 
-      controlStack(nextDelta, newEnv);
-      return;
-    } else if (rator.getType() == ASTNodeType.YSTAR) {
-      // CSE rule 12
+          for (int i = 0; i < numBoundVars; i++) {
+            newEnv.bind(i, ((Tuple) rand).get(i + 1));
+          }
+        }
 
-      Eta etaNode = new Eta();
-      etaNode.setDelta((Delta) rand);
-      CSEStack.push(etaNode);
-      return;
-    } else if (rator.getType() == ASTNodeType.ETA) {
-      // CSE rule 13
-      CSEStack.push(rand);
-      CSEStack.push(rator);
-      CSEStack.push(((Eta) rator).getDelta());
-      currentControlStack.push(node);
-      currentControlStack.push(node);
-      return;
-    } else if (rator.getType() == ASTNodeType.TUPLE) {
-      tupleSelection((Tuple) rator, rand);
-      return;
-    } else if (evaluateKeywords(rator, rand, currentControlStack))
-      return;
+        enterDelta(nextDelta, newEnv);
+        return;
+      case YSTAR:
+        // CSE rule 12
+        CSEStack.push(((Closure) rand).fix());
+        return;
+      case ETA:
+        if (memoizer != null && memoize(memoizer.keyFor((Eta) rator, rand)))
+          return;
+        // CSE rule 13
+        CSEStack.push(rand);
+        CSEStack.push(rator);
+        CSEStack.push(((Eta) rator).getClosure());
+        pushCode(ETA_APPLICATIONS, false);
+        return;
+      case TUPLE:
+        tupleSelection((Tuple) rator, rand);
+        return;
+      case BUILTIN:
+        applyBuiltin((Builtin) rator, rand);
+        return;
+      default:
+        return;
+    }
+  }
+
+  // Pushes the cached result of the application when there is one and gives true,
+  // otherwise arranges for the result to be cached once it is on top of the stack
+  private boolean memoize(MemoKey key) {
+    if (key == null)
+      return false;
+    Value result = memoizer.lookup(key);
+    if (result != null) {
+      CSEStack.push(result);
+      return true;
+    }
+    pushCode(new ASTNode[] {new MemoStore(key)}, false);
+    return false;
   }
 
   // CSE rule 6
@@ -434,93 +435,77 @@ public class CSEM {
   }
 
   // CSE rule 8
-  private void processBeta(Beta node, Stack<ASTNode> existingControlStack) {
-    ASTNode conditionResultNode = CSEStack.pop();
+  private void processBeta(Beta node) {
+    Value conditionResult = CSEStack.pop();
+    ASTNode[] part = conditionResult == TruthValue.TRUE ? node.getThenCode() : node.getElseCode();
 
-    if (conditionResultNode.getType() == ASTNodeType.TRUE)
-      existingControlStack.addAll(node.getThenPart());
-    else
-      existingControlStack.addAll(node.getElsePart());
+    if (pc == 0) {
+      // the conditional ends the body: the part takes its place, applications in
+      // it are still seen as tail calls
+      code = part;
+      pc = part.length;
+    } else
+      pushCode(part, false);
   }
 
   // CSE rule 9
-  private void createTuple(ASTNode node) {
-    int numChildren = getNumChildren(node);
-    Tuple tupleNode = new Tuple();
-    if (numChildren == 0) {
-      CSEStack.push(tupleNode);
-      return;
-    }
-
-    ASTNode childNode = null, tempNode = null;
-    for (int i = 0; i < numChildren; ++i) {
-      if (childNode == null)
-        childNode = CSEStack.pop();
-      else if (tempNode == null) {
-        tempNode = CSEStack.pop();
-        childNode.setSibling(tempNode);
-      } else {
-        tempNode.setSibling(CSEStack.pop());
-        tempNode = tempNode.getSibling();
-      }
-    }
-    tempNode.setSibling(null);
-    tupleNode.setChild(childNode);
-    CSEStack.push(tupleNode);
+  private void createTuple(Tau node) {
+    int numElements = node.getNumElements();
+    Value[] elements = new Value[numElements];
+    for (int i = 0; i < numElements; ++i)
+      elements[i] = CSEStack.pop();
+    CSEStack.push(new Tuple(elements));
+  }
+
+  // CSE rule 9 in the -par mode: the pure and costly elements are forked on the common
+  // pool while the others are pushed on the control, evaluated last first as for a tau
+  private void forkTuple(ParallelTau node) {
+    TupleTask[] tasks = new TupleTask[node.getNumElements()];
+    for (int i = 0; i < tasks.length; i++)
+      if (node.canFork(i, env))
+        tasks[i] = (TupleTask) new TupleTask(node.getElementCode(i), env, memoizer).fork();
+
+    pushCode(new ASTNode[] {new TupleJoin(tasks)}, false);
+    for (int i = 0; i < tasks.length; i++)
+      if (tasks[i] == null)
+        pushCode(node.getElementCode(i), false);
+  }
+
+  private void joinTuple(TupleJoin node) {
+    TupleTask[] tasks = node.getTasks();
+    Value[] elements = new Value[tasks.length];
+    for (int i = 0; i < tasks.length; i++)
+      if (tasks[i] == null)
+        elements[i] = CSEStack.pop();
+    for (int i = 0; i < tasks.length; i++)
+      if (tasks[i] != null)
+        elements[i] = tasks[i].join();
+    CSEStack.push(new Tuple(elements));
   }
 
   // CSE rule 10
-  private void tupleSelection(Tuple rator, ASTNode rand) {
+  private void tupleSelection(Tuple rator, Value rand) {
 
-    ASTNode result = getNthTupleChild(rator, Integer.parseInt(rand.getValue()));
+    Value result = rator.get((int) ((IntegerValue) rand).getInt());
 
     CSEStack.push(result);
   }
 
-  private int getNumChildren(ASTNode node) {
-    int numChildren = 0;
-    ASTNode childNode = node.getChild();
-    while (childNode != null) {
-      numChildren++;
-      childNode = childNode.getSibling();
-    }
-    return numChildren;
+  private int getTupleSize(Value value) {
+    if (value.getType() == ValueType.TUPLE)
+      return ((Tuple) value).size();
+    return 0;
   }
 
-  private void printNodeValue(ASTNode rand) {
-    String evaluationResult = rand.getValue();
+  private void printNodeValue(Value rand) {
+    String evaluationResult = rand.toString();
     evaluationResult = evaluationResult.replace("\\t", "\t");
     evaluationResult = evaluationResult.replace("\\n", "\n");
     System.out.print(evaluationResult);
   }
 
-  private boolean isReservedIdentifier(String value) {
-    switch (value) {
-      case "Isinteger":
-      case "Isstring":
-      case "Istuple":
-      case "Isdummy":
-      case "Istruthvalue":
-      case "Isfunction":
-      case "ItoS":
-      case "Order":
-      case "Conc":
-      case "conc":
-      case "Stern":
-      case "Stem":
-      case "Null":
-      case "Print":
-      case "print":
-      case "neg":
-        return true;
-    }
-    return false;
-  }
-
-  // processing the current node
-  private void processExistingNode(Delta existingDelta, Environment existingEnvironment,
-      Stack<ASTNode> existingControlStack) {
-    ASTNode node = existingControlStack.pop();
+  // processing the node taken from the control
+  private void processExistingNode(ASTNode node) {
     if (applyBinaryOperation(node))
       return;
     else if (applyUnaryOperation(node))
@@ -528,40 +513,197 @@ public class CSEM {
     else {
       switch (node.getType()) {
         case IDENTIFIER:
-          processIdentifiers(node, existingEnvironment);
+          processIdentifiers((Variable) node, env);
+          break;
+        case INTRINSIC:
+          CSEStack.push(((IntrinsicNode) node).getBuiltin());
+          break;
+        case INTRINSIC_CALL:
+          callIntrinsic((IntrinsicNode) node);
           break;
-        case NIL:
         case TAU:
-          createTuple(node);
+          createTuple((Tau) node);
           break;
         case BETA:
-          processBeta((Beta) node, existingControlStack);
+          processBeta((Beta) node);
           break;
         case GAMMA:
-          applyGamma(existingDelta, node, existingEnvironment, existingControlStack);
+          applyGamma();
           break;
         case DELTA:
-          ((Delta) node).setLinkedEnvironment(existingEnvironment); // CSE rule 2
-          CSEStack.push(node);
+          CSEStack.push(Closure.capture((Delta) node, env)); // CSE rule 2
+          break;
+        case PARALLEL_TAU:
+          forkTuple((ParallelTau) node);
+          break;
+        case TUPLE_JOIN:
+          joinTuple((TupleJoin) node);
+          break;
+        case MEMO_STORE:
+          memoizer.store(((MemoStore) node).getKey(), CSEStack.peek());
           break;
         default:
-          CSEStack.push(node);
+          CSEStack.push(((Constant) node).getConstant());
           break;
       }
     }
   }
 
-  // processing the controlStack
-  private void controlStack(Delta existingDelta, Environment existingEnvironment) {
-    Stack<ASTNode> controlStack = new Stack<ASTNode>();
-    controlStack.addAll(existingDelta.getBody());
-
-    while (!controlStack.isEmpty())
-      processExistingNode(existingDelta, existingEnvironment, controlStack);
+  // entering a delta body: the previous environment is restored once the body is evaluated
+  private void enterDelta(Delta delta, Environment environment) {
+    if (pc == 0 && releasesEnvironment) {
+      // tail call: the current body has nothing left to do after this application,
+      // so its frame is reused instead of stacking another frame and environment
+      framePool.release(env);
+      code = delta.getCode();
+      pc = code.length;
+    } else
+      pushCode(delta.getCode(), true);
+    env = environment;
+  }
+
+  // Evaluates newCode before what is left of the current body
+  private void pushCode(ASTNode[] newCode, boolean releases) {
+    if (frameCount == frameCodes.length) {
+      int newLength = frameCount * 2;
+      frameCodes = Arrays.copyOf(frameCodes, newLength);
+      framePcs = Arrays.copyOf(framePcs, newLength);
+      frameReleases = Arrays.copyOf(frameReleases, newLength);
+      frameEnvironments = Arrays.copyOf(frameEnvironments, newLength);
+    }
+    frameCodes[frameCount] = code;
+    framePcs[frameCount] = pc;
+    frameReleases[frameCount] = releasesEnvironment;
+    frameEnvironments[frameCount] = env;
+    frameCount++;
+    code = newCode;
+    pc = newCode.length;
+    releasesEnvironment = releases;
+  }
+
+  private void popCode() {
+    frameCount--;
+    code = frameCodes[frameCount];
+    pc = framePcs[frameCount];
+    releasesEnvironment = frameReleases[frameCount];
+    env = frameEnvironments[frameCount];
+    frameCodes[frameCount] = null;
+    frameEnvironments[frameCount] = null;
+  }
+
+  // evaluating the control until no body is left
+  private void run() {
+    while (true) {
+      if (pc == 0) {
+        // CSE rule 5, the value of the body is already on top of the stack
+        if (releasesEnvironment)
+          framePool.release(env);
+        if (frameCount == 0)
+          return;
+        popCode();
+        continue;
+      }
+      ASTNode node = code[--pc];
+      if (pc == 0 && !releasesEnvironment && frameCount > 0)
+        popCode(); // nothing is left of the part, the node is followed by what follows it
+      processExistingNode(node);
+    }
   }
 
   // evaluating the program
   public void evaluateProgram() {
-    controlStack(rootDelta, rootDelta.getLinkedEnvironment());
+    enterDelta(rootDelta, primitiveEnvironment);
+    run();
+  }
+
+  // evaluating the body given to the constructor, gives its value
+  Value evaluateBody() {
+    run();
+    return CSEStack.pop();
+  }
+}
+
+// Value stack of the CSE machine: arrays owned by a single machine, with none of the
+// locking of java.util.Stack. The integers computed by the operators stay unboxed in
+// their slot, tagged by UNBOXED, until they are needed as a Value.
+final class ValueStack {
+  private static final Value UNBOXED = new Value() {
+    @Override
+    public ValueType getType() {
+      return ValueType.INTEGER;
+    }
+
+    @Override
+    public String toString() {
+      return "unboxed";
+    }
+  };
+
+  private Value[] values = new Value[256];
+  private long[] integers = new long[256]; // Value of the UNBOXED slots
+  private int size;
+
+  public void push(Value value) {
+    if (size == values.length)
+      grow();
+    values[size++] = value;
+  }
+
+  public void pushInt(long value) {
+    if (size == values.length)
+      grow();
+    values[size] = UNBOXED;
+    integers[size++] = value;
+  }
+
+  public Value pop() {
+    Value value = values[--size];
+    values[size] = null;
+    if (value == UNBOXED)
+      return IntegerValue.of(integers[size]);
+    return value;
+  }
+
+  public long popInt() {
+    Value value = values[--size];
+    values[size] = null;
+    if (value == UNBOXED)
+      return integers[size];
+    return ((IntegerValue) value).getInt();
+  }
+
+  // The value on top, boxed in place if needed
+  public Value peek() {
+    if (values[size - 1] == UNBOXED)
+      values[size - 1] = IntegerValue.of(integers[size - 1]);
+    return values[size - 1];
+  }
+
+  // Whether the count values on top are unboxed integers
+  public boolean holdsIntegers(int count) {
+    for (int i = size - count; i < size; i++)
+      if (i < 0 || values[i] != UNBOXED)
+        return false;
+    return true;
+  }
+
+  private void grow() {
+    values = Arrays.copyOf(values, size * 2);
+    integers = Arrays.copyOf(integers, size * 2);
+  }
+}
+
+// Class representing the point on the control where the result of an application
+// cached by the Memoizer has been computed
+class MemoStore extends ASTNode {
+  private final MemoKey key;
+
+  public MemoStore(MemoKey key) {
+    setType(ASTNodeType.MEMO_STORE);
+    this.key = key;
+  }
+
+  public MemoKey getKey() {
+    return key;
   }
 }
@@ -0,0 +1,679 @@
+package src;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Translates the VM code of a delta into a JVM class implementing CompiledCode.
+// Integers and truth values stay unboxed on the JVM operand stack (as long and int)
+// between operators, they are only boxed when stored, applied or returned.
+// The class file version is 49, so the JVM verifies the class by type inference and
+// no stack map frames have to be computed.
+class ClassGenerator {
+  private static final String CLASS_NAME = "src/JitCode";
+  private static final String VALUE_DESCRIPTOR = "Lsrc/Value;";
+
+  // Kinds of the entries of the JVM operand stack
+  private static final int VALUE = 0;
+  private static final int LONG = 1;
+  private static final int BOOL = 2;
+
+  // Locals of the run method: this, env, then temporaries used while reordering the stack
+  // (astore_2, lstore_3 and istore 5 for the three kinds)
+  private static final int TEMP_BOOL = 5;
+  private static final int MAX_LOCALS = 6;
+
+  private final CodeBlock block;
+  private final VM vm;
+  private final List<Object> references = new ArrayList<Object>(); // Objects used by the code, field c
+
+  private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+  private final DataOutputStream constantPoolOut = new DataOutputStream(constantPool);
+  private final Map<String, Integer> constantIndices = new HashMap<String, Integer>();
+  private int constantCount = 1;
+
+  private byte[] code = new byte[256]; // Code of the method being generated
+  private int codeLength;
+
+  private int[] kinds = new int[16]; // Kinds of the values on the operand stack
+  private int numKinds;
+  private int stackSlots;
+  private int maxStackSlots;
+
+  public ClassGenerator(CodeBlock block, VM vm) {
+    this.block = block;
+    this.vm = vm;
+  }
+
+  // Objects the generated constructor expects as its first argument
+  public Object[] getReferences() {
+    return references.toArray();
+  }
+
+  public byte[] generate() {
+    try {
+      byte[] constructorCode = generateConstructor();
+      byte[] runCode = generateRun();
+      int runMaxStack = maxStackSlots + 8;
+
+      int thisClass = classConstant(CLASS_NAME);
+      int superClass = classConstant("java/lang/Object");
+      int compiledCodeInterface = classConstant("src/CompiledCode");
+      int referencesName = utf8Constant("c");
+      int referencesDescriptor = utf8Constant("[Ljava/lang/Object;");
+      int jitName = utf8Constant("j");
+      int jitDescriptor = utf8Constant("Lsrc/Jit;");
+      int constructorName = utf8Constant("<init>");
+      int constructorDescriptor = utf8Constant("([Ljava/lang/Object;Lsrc/Jit;)V");
+      int runName = utf8Constant("run");
+      int runDescriptor = utf8Constant("(Lsrc/Environment;)" + VALUE_DESCRIPTOR);
+      int codeName = utf8Constant("Code");
+      constantPoolOut.flush();
+
+      ByteArrayOutputStream classFile = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(classFile);
+      out.writeInt(0xCAFEBABE);
+      out.writeShort(0);
+      out.writeShort(49);
+      out.writeShort(constantCount);
+      constantPool.writeTo(out);
+      out.writeShort(0x0031); // public final super
+      out.writeShort(thisClass);
+      out.writeShort(superClass);
+      out.writeShort(1);
+      out.writeShort(compiledCodeInterface);
+
+      out.writeShort(2);
+      writeMember(out, 0x0012, referencesName, referencesDescriptor); // private final
+      out.writeShort(0);
+      writeMember(out, 0x0012, jitName, jitDescriptor);
+      out.writeShort(0);
+
+      out.writeShort(2);
+      writeMember(out, 0x0001, constructorName, constructorDescriptor);
+      writeCode(out, codeName, 2, 3, constructorCode);
+      writeMember(out, 0x0001, runName, runDescriptor);
+      writeCode(out, codeName, runMaxStack, MAX_LOCALS, runCode);
+
+      out.writeShort(0);
+      out.flush();
+      return classFile.toByteArray();
+    } catch (IOException e) {
+      throw new RuntimeException("Cannot generate the class file: " + e.getMessage());
+    }
+  }
+
+  private void writeMember(DataOutputStream out, int accessFlags, int name, int descriptor) throws IOException {
+    out.writeShort(accessFlags);
+    out.writeShort(name);
+    out.writeShort(descriptor);
+  }
+
+  // Writes the attribute count of a method followed by its Code attribute
+  private void writeCode(DataOutputStream out, int codeName, int maxStack, int maxLocals, byte[] methodCode)
+      throws IOException {
+    out.writeShort(1);
+    out.writeShort(codeName);
+    out.writeInt(12 + methodCode.length);
+    out.writeShort(maxStack);
+    out.writeShort(maxLocals);
+    out.writeInt(methodCode.length);
+    out.write(methodCode);
+    out.writeShort(0); // exception table
+    out.writeShort(0); // attributes
+  }
+
+  private byte[] generateConstructor() {
+    codeLength = 0;
+    emit(0x2a); // aload_0
+    emitReference(0xb7, methodConstant("java/lang/Object", "<init>", "()V")); // invokespecial
+    emit(0x2a); // aload_0
+    emit(0x2b); // aload_1
+    emitReference(0xb5, fieldConstant(CLASS_NAME, "c", "[Ljava/lang/Object;")); // putfield
+    emit(0x2a); // aload_0
+    emit(0x2c); // aload_2
+    emitReference(0xb5, fieldConstant(CLASS_NAME, "j", "Lsrc/Jit;")); // putfield
+    emit(0xb1); // return
+    return Arrays.copyOf(code, codeLength);
+  }
+
+  // Generates the run method, instruction by instruction of the VM code
+  private byte[] generateRun() {
+    int[] vmCode = block.getCode();
+    Value[] constants = block.getConstants();
+    Map<Integer, int[]> targetKinds = new HashMap<Integer, int[]>(); // Stack kinds at the jump targets
+    Map<Integer, List<Integer>> pendingJumps = new HashMap<Integer, List<Integer>>();
+    boolean reachable = true;
+    codeLength = 0;
+
+    int pc = 0;
+    while (pc < vmCode.length) {
+      int[] kindsAtTarget = targetKinds.get(pc);
+      if (kindsAtTarget != null) {
+        if (!reachable)
+          restoreKinds(kindsAtTarget);
+        else if (!sameKinds(kindsAtTarget)) {
+          // control flows in from a jump, which leaves its value boxed
+          toValue();
+          if (!sameKinds(kindsAtTarget))
+            throw new RuntimeException("Inconsistent stack at " + pc);
+        }
+        reachable = true;
+        for (int jump : pendingJumps.remove(pc))
+          patchBranch(jump, codeLength);
+      }
+      int opcode = vmCode[pc++];
+      if (!reachable) {
+        pc += numOperands(opcode);
+        continue;
+      }
+
+      switch (opcode) {
+        case Opcode.CONST:
+          emitConstant(constants[vmCode[pc++]]);
+          break;
+        case Opcode.LOAD_LOCAL:
+          emitLookup(0, vmCode[pc++]);
+          break;
+        case Opcode.LOAD:
+          int depth = vmCode[pc++];
+          emitLookup(depth, vmCode[pc++]);
+          break;
+        case Opcode.CLOSURE:
+          emitLoadReference(vm.getBlock(vmCode[pc++]).getDelta(), "src/Delta");
+          emit(0x2b); // aload_1
+          emitReference(0xb8, methodConstant("src/Closure", "capture",
+              "(Lsrc/Delta;Lsrc/Environment;)Lsrc/Closure;")); // invokestatic
+          push(VALUE);
+          break;
+        case Opcode.TUPLE:
+          emitTuple(vmCode[pc++]);
+          break;
+        case Opcode.APPLY:
+        case Opcode.TAIL_APPLY:
+          toValue();
+          toValueBelow();
+          pop();
+          pop();
+          emit(0x2a); // aload_0
+          emitReference(0xb4, fieldConstant(CLASS_NAME, "j", "Lsrc/Jit;")); // getfield
+          emit(0x5b); // dup_x2
+          emit(0x57); // pop
+          String method = opcode == Opcode.APPLY ? "apply" : "tailCall";
+          emitReference(0xb6, methodConstant("src/Jit", method,
+              "(" + VALUE_DESCRIPTOR + VALUE_DESCRIPTOR + ")" + VALUE_DESCRIPTOR)); // invokevirtual
+          push(VALUE);
+          if (opcode == Opcode.TAIL_APPLY) {
+            emit(0xb0); // areturn
+            pop();
+            reachable = false;
+          }
+          break;
+        case Opcode.RETURN:
+          if (numKinds == 0)
+            throw new RuntimeException("Nothing to return");
+          toValue();
+          emit(0xb0); // areturn
+          pop();
+          reachable = false;
+          break;
+        case Opcode.JUMP:
+          toValue();
+          addJump(targetKinds, pendingJumps, vmCode[pc++], emitBranch(0xa7)); // goto
+          reachable = false;
+          break;
+        case Opcode.JUMP_IF_FALSE:
+          int target = vmCode[pc++];
+          int kind = pop();
+          int branch;
+          if (kind == BOOL)
+            branch = emitBranch(0x99); // ifeq
+          else if (kind == VALUE) {
+            emitTrue();
+            branch = emitBranch(0xa6); // if_acmpne
+          } else {
+            emit(0x58); // pop2, an integer is not true
+            branch = emitBranch(0xa7); // goto
+            reachable = false;
+          }
+          addJump(targetKinds, pendingJumps, target, branch);
+          break;
+        case Opcode.NOT:
+          emitNot();
+          break;
+        case Opcode.NEG:
+          toLong();
+          emit(0x75); // lneg
+          break;
+        case Opcode.ADD:
+          emitLongOperation(0x61); // ladd
+          break;
+        case Opcode.SUB:
+          // the top of the stack is rand1, lsub gives rand2 - rand1
+          emitLongOperation(0x65); // lsub
+          emit(0x75); // lneg
+          break;
+        case Opcode.MUL:
+          emitLongOperation(0x69); // lmul
+          break;
+        case Opcode.DIV:
+          toLongs();
+          emit(0x5e); // dup2_x2
+          emit(0x58); // pop2
+          emit(0x6d); // ldiv
+          pop();
+          break;
+        case Opcode.EXP:
+          toLongs();
+          emit(0x5e); // dup2_x2
+          emit(0x58); // pop2
+          emitReference(0xb8, methodConstant("src/Primitives", "power", "(JJ)J")); // invokestatic
+          pop();
+          break;
+        // lcmp compares rand2 with rand1, branch to false when the relation does not hold
+        case Opcode.LS:
+          emitComparison(0x9e); // ifle
+          break;
+        case Opcode.LE:
+          emitComparison(0x9b); // iflt
+          break;
+        case Opcode.GR:
+          emitComparison(0x9c); // ifge
+          break;
+        case Opcode.GE:
+          emitComparison(0x9d); // ifgt
+          break;
+        case Opcode.EQ:
+        case Opcode.NE:
+          emitEquality(opcode == Opcode.EQ);
+          break;
+        case Opcode.OR:
+        case Opcode.AND:
+          toBool();
+          toBoolBelow();
+          emit(opcode == Opcode.OR ? 0x80 : 0x7e); // ior, iand
+          pop();
+          break;
+        case Opcode.AUG:
+          toValue();
+          toValueBelow();
+          emit(0x5f); // swap
+          emitReference(0xb8, methodConstant("src/Primitives", "aug",
+              "(" + VALUE_DESCRIPTOR + VALUE_DESCRIPTOR + ")Lsrc/Tuple;"));
+          pop();
+          break;
+        default:
+          throw new RuntimeException("Unknown opcode: " + opcode);
+      }
+    }
+    if (reachable || !pendingJumps.isEmpty())
+      throw new RuntimeException("Code falls off the end");
+    if (codeLength > 0x7fff)
+      throw new RuntimeException("Code too large");
+    return Arrays.copyOf(code, codeLength);
+  }
+
+  private int numOperands(int opcode) {
+    switch (opcode) {
+      case Opcode.LOAD:
+        return 2;
+      case Opcode.CONST:
+      case Opcode.LOAD_LOCAL:
+      case Opcode.CLOSURE:
+      case Opcode.TUPLE:
+      case Opcode.JUMP:
+      case Opcode.JUMP_IF_FALSE:
+        return 1;
+      default:
+        return 0;
+    }
+  }
+
+  private void addJump(Map<Integer, int[]> targetKinds, Map<Integer, List<Integer>> pendingJumps, int target,
+      int branch) {
+    int[] kindsAtTarget = targetKinds.get(target);
+    if (kindsAtTarget == null)
+      targetKinds.put(target, Arrays.copyOf(kinds, numKinds));
+    else if (!sameKinds(kindsAtTarget))
+      throw new RuntimeException("Inconsistent stack at " + target);
+    if (!pendingJumps.containsKey(target))
+      pendingJumps.put(target, new ArrayList<Integer>());
+    pendingJumps.get(target).add(branch);
+  }
+
+  // Integers and truth values are generated as JVM constants, other values are loaded from c
+  private void emitConstant(Value constant) {
+    if (constant.getType() == ValueType.INTEGER) {
+      emitReference(0x14, longConstant(((IntegerValue) constant).getInt())); // ldc2_w
+      push(LONG);
+    } else if (constant instanceof TruthValue) {
+      emit(((TruthValue) constant).getBoolean() ? 0x04 : 0x03); // iconst_1, iconst_0
+      push(BOOL);
+    } else {
+      emitLoadReference(constant, "src/Value");
+      push(VALUE);
+    }
+  }
+
+  private void emitLookup(int depth, int slot) {
+    emit(0x2b); // aload_1
+    emitInt(depth);
+    emitInt(slot);
+    emitReference(0xb6, methodConstant("src/Environment", "lookup", "(II)" + VALUE_DESCRIPTOR));
+    push(VALUE);
+  }
+
+  // Loads an object stored in c, the array given to the constructor
+  private void emitLoadReference(Object reference, String className) {
+    references.add(reference);
+    emit(0x2a); // aload_0
+    emitReference(0xb4, fieldConstant(CLASS_NAME, "c", "[Ljava/lang/Object;")); // getfield
+    emitInt(references.size() - 1);
+    emit(0x32); // aaload
+    emitReference(0xc0, classConstant(className)); // checkcast
+  }
+
+  // The first element of the tuple is on top of the stack, as in the VM
+  private void emitTuple(int numElements) {
+    emitInt(numElements);
+    emitReference(0xbd, classConstant("src/Value")); // anewarray
+    emit(0x4d); // astore_2
+    for (int i = 0; i < numElements; i++) {
+      toValue();
+      emit(0x2c); // aload_2
+      emit(0x5f); // swap
+      emitInt(i);
+      emit(0x5f); // swap
+      emit(0x53); // aastore
+      pop();
+    }
+    emitReference(0xbb, classConstant("src/Tuple")); // new
+    emit(0x59); // dup
+    emit(0x2c); // aload_2
+    emitReference(0xb7, methodConstant("src/Tuple", "<init>", "([Lsrc/Value;)V"));
+    push(VALUE);
+  }
+
+  private void emitNot() {
+    int kind = pop();
+    if (kind == BOOL) {
+      emit(0x04); // iconst_1
+      emit(0x82); // ixor
+    } else if (kind == VALUE) {
+      emitTrue();
+      emitBoolean(0xa5); // if_acmpeq
+    } else {
+      emit(0x58); // pop2, an integer is not true
+      emit(0x04); // iconst_1
+    }
+    push(BOOL);
+  }
+
+  private void emitLongOperation(int instruction) {
+    toLongs();
+    emit(instruction);
+    pop();
+  }
+
+  private void emitComparison(int branchToFalse) {
+    toLongs();
+    emit(0x94); // lcmp
+    pop();
+    pop();
+    emitBoolean(branchToFalse);
+    push(BOOL);
+  }
+
+  private void emitEquality(boolean equal) {
+    if (kinds[numKinds - 1] == LONG && kinds[numKinds - 2] == LONG) {
+      emit(0x94); // lcmp
+      pop();
+      pop();
+      emitBoolean(equal ? 0x9a : 0x99); // ifne, ifeq
+    } else {
+      toValue();
+      toValueBelow();
+      emit(0x5f); // swap
+      emitReference(0xb8, methodConstant("src/Primitives", "equal",
+          "(" + VALUE_DESCRIPTOR + VALUE_DESCRIPTOR + ")Z"));
+      pop();
+      pop();
+      if (!equal) {
+        emit(0x04); // iconst_1
+        emit(0x82); // ixor
+      }
+    }
+    push(BOOL);
+  }
+
+  // Pushes 1, or 0 when the branch to false is taken
+  private void emitBoolean(int branchToFalse) {
+    int toFalse = emitBranch(branchToFalse);
+    emit(0x04); // iconst_1
+    int toEnd = emitBranch(0xa7); // goto
+    patchBranch(toFalse, codeLength);
+    emit(0x03); // iconst_0
+    patchBranch(toEnd, codeLength);
+  }
+
+  private void emitTrue() {
+    emitReference(0xb2, fieldConstant("src/TruthValue", "TRUE", "Lsrc/TruthValue;")); // getstatic
+  }
+
+  // Boxes the value on top of the stack
+  private void toValue() {
+    int kind = kinds[numKinds - 1];
+    if (kind == LONG)
+      emitReference(0xb8, methodConstant("src/IntegerValue", "of", "(J)Lsrc/IntegerValue;"));
+    else if (kind == BOOL)
+      emitReference(0xb8, methodConstant("src/TruthValue", "of", "(Z)Lsrc/TruthValue;"));
+    setTopKind(VALUE);
+  }
+
+  private void toLong() {
+    int kind = kinds[numKinds - 1];
+    if (kind == BOOL)
+      throw new RuntimeException("Truth value used as an integer");
+    if (kind == VALUE) {
+      emitReference(0xc0, classConstant("src/IntegerValue")); // checkcast
+      emitReference(0xb6, methodConstant("src/IntegerValue", "getInt", "()J"));
+    }
+    setTopKind(LONG);
+  }
+
+  private void toBool() {
+    int kind = kinds[numKinds - 1];
+    if (kind == LONG)
+      throw new RuntimeException("Integer used as a truth value");
+    if (kind == VALUE) {
+      emitReference(0xc0, classConstant("src/TruthValue")); // checkcast
+      emitReference(0xb6, methodConstant("src/TruthValue", "getBoolean", "()Z"));
+    }
+    setTopKind(BOOL);
+  }
+
+  private void toLongs() {
+    toLong();
+    if (kinds[numKinds - 2] != LONG) {
+      int kind = spillTop();
+      toLong();
+      unspillTop(kind);
+    }
+  }
+
+  private void toValueBelow() {
+    if (kinds[numKinds - 2] != VALUE) {
+      int kind = spillTop();
+      toValue();
+      unspillTop(kind);
+    }
+  }
+
+  private void toBoolBelow() {
+    if (kinds[numKinds - 2] != BOOL) {
+      int kind = spillTop();
+      toBool();
+      unspillTop(kind);
+    }
+  }
+
+  // Moves the value on top of the stack to a temporary local
+  private int spillTop() {
+    int kind = pop();
+    if (kind == VALUE)
+      emit(0x4d); // astore_2
+    else if (kind == LONG)
+      emit(0x42); // lstore_3
+    else
+      emit(0x36, TEMP_BOOL); // istore
+    return kind;
+  }
+
+  private void unspillTop(int kind) {
+    if (kind == VALUE)
+      emit(0x2c); // aload_2
+    else if (kind == LONG)
+      emit(0x21); // lload_3
+    else
+      emit(0x15, TEMP_BOOL); // iload
+    push(kind);
+  }
+
+  private void push(int kind) {
+    if (numKinds == kinds.length)
+      kinds = Arrays.copyOf(kinds, numKinds * 2);
+    kinds[numKinds++] = kind;
+    stackSlots += kind == LONG ? 2 : 1;
+    maxStackSlots = Math.max(maxStackSlots, stackSlots);
+  }
+
+  private int pop() {
+    int kind = kinds[--numKinds];
+    stackSlots -= kind == LONG ? 2 : 1;
+    return kind;
+  }
+
+  private void setTopKind(int kind) {
+    pop();
+    push(kind);
+  }
+
+  private boolean sameKinds(int[] expected) {
+    return Arrays.equals(expected, Arrays.copyOf(kinds, numKinds));
+  }
+
+  private void restoreKinds(int[] saved) {
+    numKinds = 0;
+    stackSlots = 0;
+    for (int kind : saved)
+      push(kind);
+  }
+
+  private void emitInt(int value) {
+    if (value >= -1 && value <= 5)
+      emit(0x03 + value); // iconst
+    else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE)
+      emit(0x10, value & 0xff); // bipush
+    else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE)
+      emit(0x11, (value >> 8) & 0xff, value & 0xff); // sipush
+    else
+      throw new RuntimeException("Operand too large: " + value);
+  }
+
+  // Emits a branch with a placeholder offset and gives its position for patchBranch
+  private int emitBranch(int instruction) {
+    emit(instruction, 0, 0);
+    return codeLength - 3;
+  }
+
+  private void patchBranch(int branch, int target) {
+    int offset = target - branch;
+    code[branch + 1] = (byte) (offset >> 8);
+    code[branch + 2] = (byte) offset;
+  }
+
+  private void emitReference(int instruction, int constantIndex) {
+    emit(instruction, (constantIndex >> 8) & 0xff, constantIndex & 0xff);
+  }
+
+  private void emit(int... bytes) {
+    if (codeLength + bytes.length > code.length)
+      code = Arrays.copyOf(code, Math.max(code.length * 2, codeLength + bytes.length));
+    for (int b : bytes)
+      code[codeLength++] = (byte) b;
+  }
+
+  private int utf8Constant(String value) {
+    Integer index = constantIndices.get("U" + value);
+    if (index != null)
+      return index;
+    try {
+      constantPoolOut.writeByte(1);
+      constantPoolOut.writeUTF(value);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+    return addConstant("U" + value, 1);
+  }
+
+  private int classConstant(String name) {
+    return indexedConstant("C" + name, 7, utf8Constant(name), -1);
+  }
+
+  private int nameAndTypeConstant(String name, String descriptor) {
+    return indexedConstant("N" + name + descriptor, 12, utf8Constant(name), utf8Constant(descriptor));
+  }
+
+  private int fieldConstant(String owner, String name, String descriptor) {
+    return indexedConstant("F" + owner + "." + name, 9, classConstant(owner),
+        nameAndTypeConstant(name, descriptor));
+  }
+
+  private int methodConstant(String owner, String name, String descriptor) {
+    return indexedConstant("M" + owner + "." + name + descriptor, 10, classConstant(owner),
+        nameAndTypeConstant(name, descriptor));
+  }
+
+  private int longConstant(long value) {
+    Integer index = constantIndices.get("J" + value);
+    if (index != null)
+      return index;
+    try {
+      constantPoolOut.writeByte(5);
+      constantPoolOut.writeLong(value);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+    return addConstant("J" + value, 2); // long constants take two entries
+  }
+
+  // Constant made of one or two references to other constants, second is -1 for one
+  private int indexedConstant(String key, int tag, int first, int second) {
+    Integer index = constantIndices.get(key);
+    if (index != null)
+      return index;
+    try {
+      constantPoolOut.writeByte(tag);
+      constantPoolOut.writeShort(first);
+      if (second >= 0)
+        constantPoolOut.writeShort(second);
+    } catch (IOException e) {
+      throw new RuntimeException(e.getMessage());
+    }
+    return addConstant(key, 1);
+  }
+
+  private int addConstant(String key, int numEntries) {
+    int index = constantCount;
+    constantIndices.put(key, index);
+    constantCount += numEntries;
+    if (constantCount > 0xffff)
+      throw new RuntimeException("Too many constants");
+    return index;
+  }
+}
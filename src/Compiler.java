@@ -0,0 +1,316 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+// Compiles the deltas built by AST.createDeltas into compact bytecode for the VM.
+// The instructions follow the order in which the CSE machine would pop the control,
+// so both engines evaluate every program in exactly the same order.
+class Compiler {
+  private int[] code; // Code of the delta being compiled
+  private int codeLength;
+  private List<Value> constants; // Constant pool of the delta being compiled
+  private int stackDepth; // Operand stack depth at the current instruction
+  private int maxStackDepth;
+  private CodeBlock[] blocks;
+
+  // Compiles the root delta and every delta nested in it, indexed by the delta index
+  public CodeBlock[] compile(Delta rootDelta) {
+    List<Delta> deltas = new ArrayList<Delta>();
+    collectDeltas(rootDelta.getBody(), deltas);
+    deltas.add(rootDelta);
+
+    int maxIndex = 0;
+    for (Delta delta : deltas)
+      maxIndex = Math.max(maxIndex, delta.getIndex());
+    blocks = new CodeBlock[maxIndex + 1];
+
+    for (Delta delta : deltas)
+      blocks[delta.getIndex()] = compileDelta(delta);
+    return blocks;
+  }
+
+  // Finds the deltas nested in a body, including the branches of the conditionals
+  private void collectDeltas(Stack<ASTNode> body, List<Delta> deltas) {
+    for (ASTNode node : body) {
+      if (node.getType() == ASTNodeType.DELTA) {
+        deltas.add((Delta) node);
+        collectDeltas(((Delta) node).getBody(), deltas);
+      } else if (node.getType() == ASTNodeType.BETA) {
+        collectDeltas(((Beta) node).getThenPart(), deltas);
+        collectDeltas(((Beta) node).getElsePart(), deltas);
+      }
+    }
+  }
+
+  private CodeBlock compileDelta(Delta delta) {
+    code = new int[16];
+    codeLength = 0;
+    constants = new ArrayList<Value>();
+    stackDepth = 0;
+    maxStackDepth = 0;
+
+    compileBody(delta.getBody(), true);
+    emit(Opcode.RETURN);
+
+    int[] finalCode = new int[codeLength];
+    System.arraycopy(code, 0, finalCode, 0, codeLength);
+    return new CodeBlock(delta, finalCode, constants.toArray(new Value[constants.size()]), maxStackDepth);
+  }
+
+  // The control is popped from the top, so the body is compiled from its last element.
+  // The first element is evaluated last, an application there is in tail position.
+  private void compileBody(Stack<ASTNode> body, boolean tail) {
+    for (int i = body.size() - 1; i >= 0; i--)
+      compileNode(body.get(i), tail && i == 0);
+  }
+
+  private void compileNode(ASTNode node, boolean tail) {
+    switch (node.getType()) {
+      case IDENTIFIER:
+        compileVariable((Variable) node);
+        break;
+      case DELTA:
+        emit(Opcode.CLOSURE, ((Delta) node).getIndex());
+        adjustStack(1);
+        break;
+      case BETA:
+        compileBeta((Beta) node, tail);
+        break;
+      case GAMMA:
+        emit(tail ? Opcode.TAIL_APPLY : Opcode.APPLY);
+        adjustStack(-1);
+        break;
+      case INTRINSIC:
+        emit(Opcode.CONST, addConstant(((IntrinsicNode) node).getBuiltin()));
+        adjustStack(1);
+        break;
+      case INTRINSIC_CALL:
+        // the arguments are on the stack, the first one on top: applied one at a time
+        IntrinsicNode intrinsic = (IntrinsicNode) node;
+        emit(Opcode.CONST, addConstant(intrinsic.getBuiltin()));
+        adjustStack(1);
+        for (int i = intrinsic.getIntrinsic().getArity(); i > 0; i--) {
+          emit(tail && i == 1 ? Opcode.TAIL_APPLY : Opcode.APPLY);
+          adjustStack(-1);
+        }
+        break;
+      case TAU:
+        int numElements = ((Tau) node).getNumElements();
+        emit(Opcode.TUPLE, numElements);
+        adjustStack(1 - numElements);
+        break;
+      case NOT:
+        emit(Opcode.NOT);
+        break;
+      case NEG:
+        emit(Opcode.NEG);
+        break;
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+      case EQ:
+      case NE:
+      case OR:
+      case AND:
+      case AUG:
+        emit(Opcode.forBinaryOperator(node.getType()));
+        adjustStack(-1);
+        break;
+      default:
+        emit(Opcode.CONST, addConstant(((Constant) node).getConstant()));
+        adjustStack(1);
+        break;
+    }
+  }
+
+  private void compileVariable(Variable variable) {
+    if (variable.isBound()) {
+      if (variable.getDepth() == 0)
+        emit(Opcode.LOAD_LOCAL, variable.getSlot());
+      else
+        emit(Opcode.LOAD, variable.getDepth(), variable.getSlot());
+      adjustStack(1);
+    }
+    // like the CSE machine, unknown names leave nothing on the stack
+  }
+
+  // CSE rule 8: the condition has been evaluated, jump over the part not taken
+  private void compileBeta(Beta beta, boolean tail) {
+    int jumpToElse = emitJump(Opcode.JUMP_IF_FALSE);
+    adjustStack(-1);
+    int depth = stackDepth;
+
+    compileBody(beta.getThenPart(), tail);
+    int jumpToEnd = -1;
+    if (tail)
+      emit(Opcode.RETURN);
+    else
+      jumpToEnd = emitJump(Opcode.JUMP);
+
+    stackDepth = depth;
+    patchJump(jumpToElse);
+    compileBody(beta.getElsePart(), tail);
+    if (jumpToEnd >= 0)
+      patchJump(jumpToEnd);
+  }
+
+  private int emitJump(int opcode) {
+    emit(opcode, -1);
+    return codeLength - 1;
+  }
+
+  private void patchJump(int operandIndex) {
+    code[operandIndex] = codeLength;
+  }
+
+  private int addConstant(Value value) {
+    int index = constants.indexOf(value);
+    if (index >= 0)
+      return index;
+    constants.add(value);
+    return constants.size() - 1;
+  }
+
+  private void adjustStack(int change) {
+    stackDepth += change;
+    maxStackDepth = Math.max(maxStackDepth, stackDepth);
+  }
+
+  private void emit(int... words) {
+    if (codeLength + words.length > code.length) {
+      int[] grown = new int[Math.max(code.length * 2, codeLength + words.length)];
+      System.arraycopy(code, 0, grown, 0, codeLength);
+      code = grown;
+    }
+    for (int word : words)
+      code[codeLength++] = word;
+  }
+}
+
+// Compiled code of a single delta
+class CodeBlock {
+  private final Delta delta;
+  private final int[] code;
+  private final Value[] constants;
+  private final int maxStackDepth;
+  private int invocationCount; // Applications counted by the Jit to find hot deltas
+  private CompiledCode compiledCode; // JVM code generated by the Jit, if any
+  private boolean compilationFailed;
+
+  public CodeBlock(Delta delta, int[] code, Value[] constants, int maxStackDepth) {
+    this.delta = delta;
+    this.code = code;
+    this.constants = constants;
+    this.maxStackDepth = maxStackDepth;
+  }
+
+  public Delta getDelta() {
+    return delta;
+  }
+
+  public int[] getCode() {
+    return code;
+  }
+
+  public Value[] getConstants() {
+    return constants;
+  }
+
+  public int getMaxStackDepth() {
+    return maxStackDepth;
+  }
+
+  public int countInvocation() {
+    return ++invocationCount;
+  }
+
+  public CompiledCode getCompiledCode() {
+    return compiledCode;
+  }
+
+  public void setCompiledCode(CompiledCode compiledCode) {
+    this.compiledCode = compiledCode;
+  }
+
+  public boolean hasCompilationFailed() {
+    return compilationFailed;
+  }
+
+  public void setCompilationFailed(boolean compilationFailed) {
+    this.compilationFailed = compilationFailed;
+  }
+}
+
+// Instruction set of the VM, operands follow the opcode in the code array
+final class Opcode {
+  static final int CONST = 0; // CONST index: push a value from the constant pool
+  static final int LOAD_LOCAL = 1; // LOAD_LOCAL slot: push a variable of the current environment
+  static final int LOAD = 2; // LOAD depth slot: push a variable of an enclosing environment
+  static final int CLOSURE = 3; // CLOSURE delta: push a closure over the current environment
+  static final int TUPLE = 4; // TUPLE n: pop n values into a tuple
+  static final int APPLY = 5; // apply the rator on top of the stack to the rand below it
+  static final int TAIL_APPLY = 6; // APPLY as the last action of the delta, reusing its frame
+  static final int RETURN = 7; // leave the delta, its value is on top of the stack
+  static final int JUMP = 8; // JUMP target
+  static final int JUMP_IF_FALSE = 9; // JUMP_IF_FALSE target: pop the condition, jump unless true
+  static final int NOT = 10;
+  static final int NEG = 11;
+  static final int ADD = 12;
+  static final int SUB = 13;
+  static final int MUL = 14;
+  static final int DIV = 15;
+  static final int EXP = 16;
+  static final int LS = 17;
+  static final int LE = 18;
+  static final int GR = 19;
+  static final int GE = 20;
+  static final int EQ = 21;
+  static final int NE = 22;
+  static final int OR = 23;
+  static final int AND = 24;
+  static final int AUG = 25;
+
+  private Opcode() {
+  }
+
+  static int forBinaryOperator(ASTNodeType type) {
+    switch (type) {
+      case PLUS:
+        return ADD;
+      case MINUS:
+        return SUB;
+      case MULT:
+        return MUL;
+      case DIV:
+        return DIV;
+      case EXP:
+        return EXP;
+      case LS:
+        return LS;
+      case LE:
+        return LE;
+      case GR:
+        return GR;
+      case GE:
+        return GE;
+      case EQ:
+        return EQ;
+      case NE:
+        return NE;
+      case OR:
+        return OR;
+      case AND:
+        return AND;
+      default:
+        return AUG;
+    }
+  }
+}
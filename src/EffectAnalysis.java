@@ -0,0 +1,406 @@
+package src;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+// Effect of evaluating an expression or of applying a function. Print is the only
+// effect in RPAL.
+enum Effect {
+  PURE, // never prints
+  UNKNOWN, // prints only if a function received from outside does (a parameter)
+  EFFECTFUL; // may print
+
+  public Effect join(Effect other) {
+    return compareTo(other) >= 0 ? this : other;
+  }
+
+  @Override
+  public String toString() {
+    return name().toLowerCase();
+  }
+}
+
+// Effect analysis of the standardized tree.
+// Every expression gets the Effect of its evaluation, and every lambda the Effect of
+// applying it, including anything its result does when applied later on (the effect
+// createDeltas gives to the Delta). The value of an expression is approximated by a
+// Summary, so let and where bindings follow the functions they bind: an application
+// of a bound lambda has the effect of its body, while the parameters of the lambdas
+// that are not applied on the spot are unknown functions. rec functions are assumed
+// pure, then reanalyzed until their summary no longer changes.
+class EffectAnalysis {
+  private static final int MAX_ITERATIONS = 16; // Fixpoints not reached by then are given up
+
+  private final ASTNode root;
+  private final Map<ASTNode, Effect> effects = new IdentityHashMap<ASTNode, Effect>();
+  private final Map<ASTNode, Effect> callEffects = new IdentityHashMap<ASTNode, Effect>();
+
+  public EffectAnalysis(ASTNode root) {
+    this.root = root;
+    analyze(root, null);
+  }
+
+  // Effect of evaluating the expression, EFFECTFUL for a node that was not analyzed
+  public Effect effectOf(ASTNode node) {
+    Effect effect = effects.get(node);
+    return effect == null ? Effect.EFFECTFUL : effect;
+  }
+
+  // Effect of applying the lambda, EFFECTFUL for a node that was not analyzed
+  public Effect callEffectOf(ASTNode lambda) {
+    Effect effect = callEffects.get(lambda);
+    return effect == null ? Effect.EFFECTFUL : effect;
+  }
+
+  public Effect getProgramEffect() {
+    return effectOf(root);
+  }
+
+  // Whether using the runtime value can never print: the closures reachable from it are
+  // not effectful, the values they captured are pure and it holds no Print built-in.
+  // Settles at runtime what the analysis leaves UNKNOWN.
+  public static boolean isPure(Value value) {
+    return isPure(value, new IdentityHashMap<Value, Boolean>());
+  }
+
+  private static boolean isPure(Value value, Map<Value, Boolean> visited) {
+    if (value == null || visited.put(value, Boolean.TRUE) != null)
+      return true; // the closures of rec functions refer to themselves
+    switch (value.getType()) {
+      case CLOSURE:
+        Closure closure = (Closure) value;
+        if (closure.getDelta().getEffect() == Effect.EFFECTFUL)
+          return false;
+        for (Environment e = closure.getEnvironment(); e != null; e = e.getParent())
+          for (int i = 0; i < e.size(); i++)
+            if (!isPure(e.lookup(0, i), visited))
+              return false;
+        return true;
+      case ETA:
+        return isPure(((Eta) value).getClosure(), visited);
+      case BUILTIN:
+        Builtin builtin = (Builtin) value;
+        return builtin.getIntrinsic() != Intrinsic.PRINT && isPure(builtin.getFirstArgument(), visited);
+      case TUPLE:
+        Tuple tuple = (Tuple) value;
+        for (int i = 1; i <= tuple.size(); i++)
+          if (!isPure(tuple.get(i), visited))
+            return false;
+        return true;
+      default:
+        return true;
+    }
+  }
+
+  // Records the effect of evaluating the node and gives the summary of its value
+  private Summary analyze(ASTNode node, Scope scope) {
+    Effect effect = Effect.PURE;
+    Summary summary;
+    switch (node.getType()) {
+      case INTEGER:
+      case STRING:
+      case TRUE:
+      case FALSE:
+      case DUMMY:
+        summary = Summary.DATA;
+        break;
+      case NIL:
+        summary = Summary.tuple(new Summary[0]);
+        break;
+      case IDENTIFIER:
+        summary = Scope.lookup(scope, node.getValue());
+        break;
+      case LAMBDA:
+        summary = analyzeLambda(node, scope, Summary.UNKNOWN);
+        break;
+      case GAMMA:
+        ASTNode rator = node.getChild();
+        ASTNode rand = rator.getSibling();
+        if (rator.getType() == ASTNodeType.YSTAR && rand.getType() == ASTNodeType.LAMBDA) {
+          summary = fix(rand, scope);
+          effects.put(rator, Effect.PURE);
+          break;
+        }
+        Summary randSummary = analyze(rand, scope);
+        Summary ratorSummary;
+        if (rator.getType() == ASTNodeType.LAMBDA) // let and where bind the lambda to the rand
+          ratorSummary = analyzeLambda(rator, scope, randSummary);
+        else
+          ratorSummary = analyze(rator, scope);
+        effect = effects.get(rand).join(effects.get(rator)).join(ratorSummary.getCall());
+        summary = ratorSummary.getResult();
+        break;
+      case CONDITIONAL:
+        ASTNode condition = node.getChild();
+        analyze(condition, scope);
+        Summary thenSummary = analyze(condition.getSibling(), scope);
+        Summary elseSummary = analyze(condition.getSibling().getSibling(), scope);
+        effect = joinEffects(node);
+        summary = Summary.join(thenSummary, elseSummary);
+        break;
+      case TAU:
+        int numElements = 0;
+        for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+          numElements++;
+        Summary[] elements = new Summary[numElements];
+        int i = 0;
+        for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+          elements[i++] = analyze(child, scope);
+        effect = joinEffects(node);
+        summary = Summary.tuple(elements);
+        break;
+      case AUG:
+        Summary tuple = analyze(node.getChild(), scope);
+        Summary element = analyze(node.getChild().getSibling(), scope);
+        effect = joinEffects(node);
+        summary = Summary.anyTuple(Summary.join(tuple.getAny(), element));
+        break;
+      case OR:
+      case AND:
+      case NOT:
+      case GR:
+      case GE:
+      case LS:
+      case LE:
+      case EQ:
+      case NE:
+      case PLUS:
+      case MINUS:
+      case NEG:
+      case MULT:
+      case DIV:
+      case EXP:
+        for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+          analyze(child, scope);
+        effect = joinEffects(node);
+        summary = Summary.DATA;
+        break;
+      default:
+        // Y* outside of a rec, or nodes the standardizer should have removed
+        for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+          analyze(child, scope);
+        effect = Effect.EFFECTFUL;
+        summary = Summary.TOP;
+        break;
+    }
+    effects.put(node, effect);
+    return summary;
+  }
+
+  // Analyzes the body of the lambda with its parameter bound to argument
+  private Summary analyzeLambda(ASTNode lambda, Scope scope, Summary argument) {
+    ASTNode parameter = lambda.getChild();
+    ASTNode body = parameter.getSibling();
+    Summary result = analyze(body, bind(parameter, argument, scope));
+    Summary function = Summary.function(effects.get(body), result);
+    effects.put(parameter, Effect.PURE);
+    for (ASTNode name = parameter.getChild(); name != null; name = name.getSibling())
+      effects.put(name, Effect.PURE);
+    effects.put(lambda, Effect.PURE);
+    callEffects.put(lambda, function.getDeepEffect());
+    return function;
+  }
+
+  // Summary of rec: Y* applied to the lambda, starting from a function that does nothing
+  private Summary fix(ASTNode lambda, Scope scope) {
+    Summary assumed = Summary.BOTTOM;
+    for (int i = 0; i < MAX_ITERATIONS; i++) {
+      Summary function = Summary.truncate(analyzeLambda(lambda, scope, assumed));
+      // calling the lambda gives the rec function, the value of its body
+      Summary next = Summary.join(assumed, function.getResult());
+      if (Summary.same(next, assumed))
+        return assumed;
+      assumed = next;
+    }
+    analyzeLambda(lambda, scope, Summary.TOP);
+    return Summary.TOP;
+  }
+
+  private static Scope bind(ASTNode parameter, Summary argument, Scope scope) {
+    if (parameter.getType() == ASTNodeType.IDENTIFIER)
+      return new Scope(parameter.getValue(), argument, scope);
+    if (parameter.getType() == ASTNodeType.COMMA) {
+      int i = 0;
+      for (ASTNode name = parameter.getChild(); name != null; name = name.getSibling())
+        scope = new Scope(name.getValue(), argument.getElement(i++), scope);
+    }
+    return scope; // the empty parameter ()
+  }
+
+  private Effect joinEffects(ASTNode node) {
+    Effect effect = Effect.PURE;
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      effect = effect.join(effects.get(child));
+    return effect;
+  }
+}
+
+// Approximation of the values an expression may have, as far as effects go: the
+// effect of applying it, the summary of the result and the summaries of its elements
+// when it is a tuple. Summaries are immutable and nested at most MAX_DEPTH deep.
+final class Summary {
+  private static final int MAX_DEPTH = 4;
+
+  static final Summary BOTTOM = new Summary(Effect.PURE); // No value at all
+  static final Summary DATA = new Summary(Effect.PURE); // Integers, strings, truth values, dummy
+  static final Summary UNKNOWN = new Summary(Effect.UNKNOWN); // Value received from outside
+  static final Summary TOP = new Summary(Effect.EFFECTFUL); // Any value
+
+  static {
+    BOTTOM.result = BOTTOM;
+    BOTTOM.any = BOTTOM;
+    DATA.result = BOTTOM;
+    DATA.any = BOTTOM;
+    UNKNOWN.result = UNKNOWN;
+    UNKNOWN.any = UNKNOWN;
+    TOP.result = TOP;
+    TOP.any = TOP;
+  }
+
+  private final Effect call; // Effect of applying the value
+  private Summary result; // Value of the application
+  private Summary[] elements; // Elements of a tuple of known size, null otherwise
+  private Summary any; // Any element, for tuples of unknown size and selections
+
+  private Summary(Effect call) {
+    this.call = call;
+  }
+
+  private Summary(Effect call, Summary result, Summary[] elements, Summary any) {
+    this.call = call;
+    this.result = result;
+    this.elements = elements;
+    this.any = any;
+  }
+
+  static Summary function(Effect call, Summary result) {
+    return new Summary(call, result, null, BOTTOM);
+  }
+
+  // Selecting an element of a tuple (CSE rule 10) gives one of its elements
+  static Summary tuple(Summary[] elements) {
+    Summary any = BOTTOM;
+    for (Summary element : elements)
+      any = join(any, element);
+    return new Summary(Effect.PURE, any, elements, any);
+  }
+
+  static Summary anyTuple(Summary any) {
+    return new Summary(Effect.PURE, any, null, any);
+  }
+
+  Effect getCall() {
+    return call;
+  }
+
+  Summary getResult() {
+    return result;
+  }
+
+  Summary getAny() {
+    return any;
+  }
+
+  Summary getElement(int i) {
+    if (elements == null)
+      return any;
+    return i < elements.length ? elements[i] : BOTTOM;
+  }
+
+  // Effect of applying the value or anything that can be obtained from it
+  Effect getDeepEffect() {
+    if (isConstant())
+      return call;
+    return call.join(result.getDeepEffect()).join(any.getDeepEffect());
+  }
+
+  private boolean isConstant() {
+    return this == BOTTOM || this == DATA || this == UNKNOWN || this == TOP;
+  }
+
+  static Summary join(Summary summary1, Summary summary2) {
+    return join(summary1, summary2, 0);
+  }
+
+  private static Summary join(Summary summary1, Summary summary2, int depth) {
+    if (summary1 == summary2 || summary2 == BOTTOM)
+      return summary1;
+    if (summary1 == BOTTOM)
+      return summary2;
+    if (summary1 == TOP || summary2 == TOP || depth > MAX_DEPTH)
+      return TOP;
+    Summary[] elements = null;
+    if (summary1.elements != null && summary2.elements != null
+        && summary1.elements.length == summary2.elements.length) {
+      elements = new Summary[summary1.elements.length];
+      for (int i = 0; i < elements.length; i++)
+        elements[i] = join(summary1.elements[i], summary2.elements[i], depth + 1);
+    }
+    return new Summary(summary1.call.join(summary2.call), join(summary1.result, summary2.result, depth + 1),
+        elements, join(summary1.any, summary2.any, depth + 1));
+  }
+
+  // Replaces what is nested deeper than MAX_DEPTH by TOP, so that fixpoints are reached
+  static Summary truncate(Summary summary) {
+    return truncate(summary, 0);
+  }
+
+  private static Summary truncate(Summary summary, int depth) {
+    if (summary.isConstant())
+      return summary;
+    if (depth > MAX_DEPTH)
+      return TOP;
+    Summary[] elements = null;
+    if (summary.elements != null) {
+      elements = new Summary[summary.elements.length];
+      for (int i = 0; i < elements.length; i++)
+        elements[i] = truncate(summary.elements[i], depth + 1);
+    }
+    return new Summary(summary.call, truncate(summary.result, depth + 1), elements,
+        truncate(summary.any, depth + 1));
+  }
+
+  static boolean same(Summary summary1, Summary summary2) {
+    if (summary1 == summary2)
+      return true;
+    if (summary1.isConstant() || summary2.isConstant() || summary1.call != summary2.call)
+      return false;
+    if ((summary1.elements == null) != (summary2.elements == null))
+      return false;
+    if (summary1.elements != null) {
+      if (summary1.elements.length != summary2.elements.length)
+        return false;
+      for (int i = 0; i < summary1.elements.length; i++)
+        if (!same(summary1.elements[i], summary2.elements[i]))
+          return false;
+    }
+    return same(summary1.result, summary2.result) && same(summary1.any, summary2.any);
+  }
+}
+
+// Bindings visible to an expression, innermost first
+final class Scope {
+  private final String name;
+  private final Summary summary;
+  private final Scope parent;
+
+  Scope(String name, Summary summary, Scope parent) {
+    this.name = name;
+    this.summary = summary;
+    this.parent = parent;
+  }
+
+  // Names bound nowhere are the built-in functions
+  static Summary lookup(Scope scope, String name) {
+    for (Scope s = scope; s != null; s = s.parent)
+      if (s.name.equals(name))
+        return s.summary;
+    if (Primitives.isPrint(name))
+      return Summary.function(Effect.EFFECTFUL, Summary.DATA);
+    if (name.equals("Conc") || name.equals("conc"))
+      return Summary.function(Effect.PURE, Summary.function(Effect.PURE, Summary.DATA));
+    if (Primitives.isReservedIdentifier(name))
+      return Summary.function(Effect.PURE, Summary.DATA);
+    return Summary.DATA; // evaluating it is an error, not an effect
+  }
+}
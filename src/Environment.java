@@ -1,21 +1,22 @@
 package src;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 // Environment class for managing variable bindings
+// Each environment is a fixed-size array of slots, one per bound variable of the
+// delta it was created for. Identifiers are resolved to (depth, slot) pairs when
+// the deltas are created, so a lookup only walks up the parent chain. The parent of
+// an application's environment holds the values captured by the closure, so the
+// chain is at most two environments long.
 public class Environment {
   private Environment parent; // Reference to the parent environment
-  private Map<String, ASTNode> nameValues; // Map for storing variable bindings
+  private Value[] slots; // Values bound in this environment
+  private boolean pooled; // Whether the environment is recycled by a FramePool
 
   // Constructor to initialize the environment
-  public Environment() {
-    nameValues = new HashMap<String, ASTNode>(); // Initialize the map
-  }
-
-  // Setter for setting the parent environment
-  public void setParent(Environment parent) {
+  public Environment(Environment parent, int size) {
     this.parent = parent;
+    slots = new Value[size];
   }
 
   // Getter for getting the parent environment
@@ -23,26 +24,79 @@ public class Environment {
     return parent;
   }
 
-  // Method to look up a variable binding in the environment
-  public ASTNode lookup(String key) {
-    ASTNode returnVal = null;
-    Map<String, ASTNode> map = nameValues; // Get the map of variable bindings
+  // Method to look up a variable binding depth environments up the chain
+  public Value lookup(int depth, int slot) {
+    Environment environment = this;
+    for (int i = 0; i < depth; i++)
+      environment = environment.parent;
+    return environment.slots[slot];
+  }
 
-    returnVal = map.get(key); // Look up the key in the map
+  // Method to add a new variable binding to the environment
+  public void bind(int slot, Value value) {
+    slots[slot] = value;
+  }
 
-    // If the key is found, create a copy of the value using the Copier visitor
-    if (returnVal != null)
-      return returnVal.accept(new Copier());
+  public boolean isPooled() {
+    return pooled;
+  }
 
-    // If the key is not found in this environment, recursively search in the parent environment
-    if (parent != null)
-      return parent.lookup(key);
-    else
-      return null; // Return null if the key is not found in any environment
+  public int size() {
+    return slots.length;
   }
 
-  // Method to add a new variable binding to the environment
-  public void addMapping(String key, ASTNode value) {
-    nameValues.put(key, value); // Add the key-value pair to the map
+  // Prepares a recycled environment for a new application
+  void reuse(Environment parent) {
+    this.parent = parent;
+    pooled = true;
+  }
+
+  // Drops the references held by a recycled environment
+  void clear() {
+    parent = null;
+    for (int i = 0; i < slots.length; i++)
+      slots[i] = null;
+  }
+}
+
+// Pool of environments for the applications of closures.
+// Closures copy the values they capture, so the environment of an application is only
+// reachable from the environment stack and can be reused as soon as its delta returns;
+// recursive numeric code then allocates no environment once the pool holds enough of
+// them for the recursion depth.
+class FramePool {
+  private static final int MAX_FREE = 1024; // Free environments kept for each size
+
+  private Environment[][] free = new Environment[4][]; // Free environments indexed by size
+  private int[] numFree = new int[4];
+
+  public Environment acquire(Environment parent, int size) {
+    Environment environment;
+    if (size < free.length && numFree[size] > 0) {
+      environment = free[size][--numFree[size]];
+      free[size][numFree[size]] = null;
+    } else
+      environment = new Environment(null, size);
+    environment.reuse(parent);
+    return environment;
+  }
+
+  // Takes back an environment given by acquire, others are left to the garbage collector
+  public void release(Environment environment) {
+    if (!environment.isPooled())
+      return;
+    int size = environment.size();
+    if (size >= free.length) {
+      free = Arrays.copyOf(free, size + 1);
+      numFree = Arrays.copyOf(numFree, size + 1);
+    }
+    if (free[size] == null)
+      free[size] = new Environment[16];
+    if (numFree[size] == MAX_FREE)
+      return;
+    if (numFree[size] == free[size].length)
+      free[size] = Arrays.copyOf(free[size], numFree[size] * 2);
+    environment.clear();
+    free[size][numFree[size]++] = environment;
   }
 }
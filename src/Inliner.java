@@ -0,0 +1,208 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Beta reduction of the standardized tree before the deltas are created.
+// A let or where becomes gamma(lambda x. body, E), and each of them costs a closure,
+// an environment and a delta body at runtime. The Inliner substitutes E for x in the
+// body when that changes nothing but the cost:
+// - E is a literal or a variable, it replaces every x;
+// - E is a lambda of at most INLINE_BUDGET nodes, it replaces the x that are applied,
+//   and the applications it lands in are reduced in turn. Such a lambda is never
+//   recursive, rec goes through Y*;
+// - E cannot fail, print or loop (see Trees.cannotFail) and x is used once, outside
+//   of any lambda.
+// Bindings left unused are removed when their value cannot fail either. Tuple
+// parameters bound to a tuple of the same size are handled element by element.
+// E is not substituted under a lambda that would capture one of its variables.
+class Inliner {
+  private static final int INLINE_BUDGET = 24; // Largest lambda copied, in nodes
+  private static final int MAX_INLINED_LAMBDAS = 10000; // Bounds the growth of the tree
+
+  private int fuel = MAX_INLINED_LAMBDAS; // Lambdas that can still be inlined
+
+  public void inline(ASTNode node) {
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      inline(child);
+    if (node.getType() == ASTNodeType.GAMMA && node.getChild().getType() == ASTNodeType.LAMBDA)
+      reduce(node);
+  }
+
+  // Reduces gamma(lambda, rand) as far as its bindings allow
+  private void reduce(ASTNode gamma) {
+    ASTNode lambda = gamma.getChild();
+    ASTNode parameter = lambda.getChild();
+    ASTNode body = parameter.getSibling();
+    ASTNode rand = lambda.getSibling();
+
+    List<ASTNode> names = new ArrayList<ASTNode>();
+    List<ASTNode> values = new ArrayList<ASTNode>();
+    if (parameter.getType() == ASTNodeType.IDENTIFIER) {
+      names.add(parameter);
+      values.add(rand);
+    } else if (parameter.getType() == ASTNodeType.COMMA && rand.getType() == ASTNodeType.TAU) {
+      for (ASTNode name = parameter.getChild(); name != null; name = name.getSibling())
+        names.add(name);
+      for (ASTNode value = rand.getChild(); value != null; value = value.getSibling())
+        values.add(value);
+      if (names.size() != values.size())
+        return;
+    } else
+      return;
+
+    Set<String> parameterNames = new HashSet<String>();
+    for (ASTNode name : names)
+      parameterNames.add(name.getValue());
+
+    boolean substituted = false;
+    List<Boolean> unused = new ArrayList<Boolean>();
+    for (int i = 0; i < names.size(); i++) {
+      String name = names.get(i).getValue();
+      ASTNode value = values.get(i);
+      Set<String> freeNames = new HashSet<String>();
+      Trees.freeVariables(value, freeNames);
+      // the parameters are still bound around the body, a value referring to one
+      // of the names outside of the lambda cannot be moved in
+      boolean movable = Trees.disjoint(freeNames, parameterNames);
+      if (movable && isTrivial(value)) {
+        substituted |= substitute(body, name, value, freeNames, false);
+      } else if (movable && value.getType() == ASTNodeType.LAMBDA && Trees.size(value) <= INLINE_BUDGET
+          && fuel > 0) {
+        if (substitute(body, name, value, freeNames, true)) {
+          substituted = true;
+          fuel--;
+        }
+      } else if (movable && Trees.cannotFail(value) && countUses(body, name, false) == 1
+          && countUses(body, name, true) == 0) {
+        substituted |= substitute(body, name, value, freeNames, false);
+      }
+      unused.add(countUses(body, name, false) == 0 && Trees.cannotFail(value));
+    }
+
+    // removing the bindings nothing uses anymore
+    List<ASTNode> keptNames = new ArrayList<ASTNode>();
+    List<ASTNode> keptValues = new ArrayList<ASTNode>();
+    for (int i = 0; i < names.size(); i++)
+      if (!unused.get(i)) {
+        keptNames.add(names.get(i));
+        keptValues.add(values.get(i));
+      }
+    if (keptNames.isEmpty())
+      Trees.replace(gamma, body);
+    else if (keptNames.size() < names.size()) {
+      if (keptNames.size() == 1) {
+        // a single name binds the whole rand, it has to be the element itself
+        Trees.replace(parameter, keptNames.get(0));
+        Trees.replace(rand, keptValues.get(0));
+      } else {
+        parameter.setChild(chain(keptNames, true));
+        rand.setChild(chain(keptValues, false));
+      }
+    }
+
+    // the lambdas substituted in applications are new redexes
+    if (substituted)
+      inline(keptNames.isEmpty() ? gamma : body);
+  }
+
+  // Replaces the free occurrences of name in node by copies of value, only the applied
+  // ones when appliedOnly is set. The occurrences under a lambda binding a free variable
+  // of the value are left alone. Gives whether anything was replaced.
+  private boolean substitute(ASTNode node, String name, ASTNode value, Set<String> freeNames,
+      boolean appliedOnly) {
+    return replaceUses(node, name, value, freeNames, appliedOnly, false);
+  }
+
+  private boolean replaceUses(ASTNode node, String name, ASTNode value, Set<String> freeNames,
+      boolean appliedOnly, boolean applied) {
+    if (node.getType() == ASTNodeType.IDENTIFIER) {
+      if (!node.getValue().equals(name) || (appliedOnly && !applied))
+        return false;
+      Trees.replace(node, copy(value));
+      return true;
+    }
+    if (node.getType() == ASTNodeType.LAMBDA
+        && (binds(node.getChild(), name) || bindsAny(node.getChild(), freeNames)))
+      return false;
+    boolean replaced = false;
+    boolean rator = node.getType() == ASTNodeType.GAMMA;
+    for (ASTNode child = Trees.firstExpression(node); child != null; child = child.getSibling()) {
+      replaced |= replaceUses(child, name, value, freeNames, appliedOnly, rator);
+      rator = false;
+    }
+    return replaced;
+  }
+
+  // Number of free occurrences of name, only those under a lambda when underLambda is set
+  private int countUses(ASTNode node, String name, boolean underLambda) {
+    return countUses(node, name, underLambda, false);
+  }
+
+  private int countUses(ASTNode node, String name, boolean underLambda, boolean inLambda) {
+    if (node.getType() == ASTNodeType.IDENTIFIER)
+      return node.getValue().equals(name) && (inLambda || !underLambda) ? 1 : 0;
+    if (node.getType() == ASTNodeType.LAMBDA) {
+      if (binds(node.getChild(), name))
+        return 0;
+      inLambda = true;
+    }
+    int uses = 0;
+    for (ASTNode child = Trees.firstExpression(node); child != null; child = child.getSibling())
+      uses += countUses(child, name, underLambda, inLambda);
+    return uses;
+  }
+
+  private static boolean binds(ASTNode parameter, String name) {
+    for (ASTNode bound : Trees.parameterNames(parameter))
+      if (bound.getValue().equals(name))
+        return true;
+    return false;
+  }
+
+  private static boolean bindsAny(ASTNode parameter, Set<String> names) {
+    for (ASTNode bound : Trees.parameterNames(parameter))
+      if (names.contains(bound.getValue()))
+        return true;
+    return false;
+  }
+
+  // Literals and variables, copying them costs no more than looking up the binding
+  private static boolean isTrivial(ASTNode node) {
+    return node.getType() == ASTNodeType.IDENTIFIER || (Constant.isConstant(node) && node.getType() != ASTNodeType.YSTAR);
+  }
+
+  private static ASTNode copy(ASTNode node) {
+    ASTNode copy = new ASTNode();
+    copy.setType(node.getType());
+    copy.setValue(node.getValue());
+    ASTNode last = null;
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling()) {
+      ASTNode childCopy = copy(child);
+      if (last == null)
+        copy.setChild(childCopy);
+      else
+        last.setSibling(childCopy);
+      last = childCopy;
+    }
+    return copy;
+  }
+
+  // Links the nodes as siblings, copying them when they may still be linked elsewhere
+  private static ASTNode chain(List<ASTNode> nodes, boolean copy) {
+    ASTNode first = null;
+    ASTNode last = null;
+    for (ASTNode node : nodes) {
+      ASTNode link = copy ? copy(node) : node;
+      if (last == null)
+        first = link;
+      else
+        last.setSibling(link);
+      last = link;
+    }
+    last.setSibling(null);
+    return first;
+  }
+}
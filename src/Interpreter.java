@@ -0,0 +1,220 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+// Interpreter executing the standardized tree as a tree of Node objects.
+// The nodes specialize themselves on the values they see: operators that have only
+// seen integers and applications that always call the same delta rewrite themselves
+// into nodes with a cheap guard instead of the generic type switches (see Node.java).
+// Each delta becomes the tree of its body, identifiers are resolved to (depth, slot)
+// exactly as for the CSE machine.
+public class Interpreter {
+  // Non-tail applications recurse on the Java stack, so the program runs on a thread
+  // with a stack large enough for deep RPAL recursion
+  private static final long STACK_SIZE = 1L << 30;
+  // Returned by a body ending with a tail application, see tailCall
+  private static final Value TAIL_CALL = new TailCall();
+
+  private FunctionBody[] bodies; // Bodies of the deltas indexed by the delta index
+  private FunctionBody rootBody;
+  private Value pendingRator; // Tail application requested by the last body
+  private Value pendingRand;
+  private RuntimeException failure; // Error raised on the evaluation thread
+
+  public Interpreter(AST ast) {
+    if (!ast.isStandardized())
+      throw new RuntimeException("AST is not standardized!");
+    Delta rootDelta = ast.createDeltas();
+
+    List<Delta> deltas = new ArrayList<Delta>();
+    collectDeltas(rootDelta.getBody(), deltas);
+    deltas.add(rootDelta);
+    int maxIndex = 0;
+    for (Delta delta : deltas)
+      maxIndex = Math.max(maxIndex, delta.getIndex());
+    bodies = new FunctionBody[maxIndex + 1];
+    for (Delta delta : deltas)
+      bodies[delta.getIndex()] = new FunctionBody(new NodeBuilder(this, delta.getBody()).build(true));
+    rootBody = bodies[rootDelta.getIndex()];
+  }
+
+  // evaluating the program
+  public void evaluateProgram() {
+    Thread thread = new Thread(null, new Runnable() {
+      public void run() {
+        try {
+          execute(rootBody, new Environment(null, 0));
+        } catch (RuntimeException e) {
+          failure = e;
+        }
+      }
+    }, "rpal", STACK_SIZE);
+    thread.start();
+    try {
+      thread.join();
+    } catch (InterruptedException e) {
+      throw new RuntimeException("Evaluation interrupted");
+    }
+    if (failure != null)
+      throw failure;
+  }
+
+  // Applies rator to rand (CSE rules 3, 4, 10 to 13)
+  Value apply(Value rator, Value rand) {
+    switch (rator.getType()) {
+      case CLOSURE:
+        Closure closure = (Closure) rator;
+        return execute(bodies[closure.getDelta().getIndex()], closure.bind(rand));
+      case YSTAR:
+        return ((Closure) rand).fix();
+      case ETA:
+        Eta eta = (Eta) rator;
+        return apply(apply(eta.getClosure(), eta), rand);
+      case TUPLE:
+        return Primitives.select((Tuple) rator, rand);
+      case BUILTIN:
+        return Primitives.applyBuiltin((Builtin) rator, rand);
+      default:
+        throw new RuntimeException("Cannot apply a " + rator.getType() + " value");
+    }
+  }
+
+  // Runs a body, then the tail applications it requests, in constant Java stack space
+  Value execute(FunctionBody body, Environment env) {
+    Value result = body.execute(env);
+    while (result == TAIL_CALL) {
+      Value rator = pendingRator;
+      Value rand = pendingRand;
+      pendingRator = null;
+      pendingRand = null;
+      while (rator.getType() == ValueType.ETA) {
+        Eta eta = (Eta) rator;
+        rator = apply(eta.getClosure(), eta);
+      }
+      if (rator.getType() != ValueType.CLOSURE)
+        return apply(rator, rand);
+      Closure closure = (Closure) rator;
+      result = bodies[closure.getDelta().getIndex()].execute(closure.bind(rand));
+    }
+    return result;
+  }
+
+  // Application in tail position: the body returns it to execute instead of making it
+  Value tailCall(Value rator, Value rand) {
+    pendingRator = rator;
+    pendingRand = rand;
+    return TAIL_CALL;
+  }
+
+  FunctionBody getBody(Delta delta) {
+    return bodies[delta.getIndex()];
+  }
+
+  // Finds the deltas nested in a body, including the branches of the conditionals
+  private void collectDeltas(Stack<ASTNode> body, List<Delta> deltas) {
+    for (ASTNode node : body) {
+      if (node.getType() == ASTNodeType.DELTA) {
+        deltas.add((Delta) node);
+        collectDeltas(((Delta) node).getBody(), deltas);
+      } else if (node.getType() == ASTNodeType.BETA) {
+        collectDeltas(((Beta) node).getThenPart(), deltas);
+        collectDeltas(((Beta) node).getElsePart(), deltas);
+      }
+    }
+  }
+
+  private static class TailCall extends Value {
+    @Override
+    public ValueType getType() {
+      return ValueType.DUMMY;
+    }
+
+    @Override
+    public String toString() {
+      return "tail call";
+    }
+  }
+}
+
+// Rebuilds the tree of a delta body from the pre-order control stack built by createDeltas
+class NodeBuilder {
+  private final Interpreter interpreter;
+  private final Stack<ASTNode> body;
+  private int position;
+
+  NodeBuilder(Interpreter interpreter, Stack<ASTNode> body) {
+    this.interpreter = interpreter;
+    this.body = body;
+  }
+
+  Node build(boolean tail) {
+    position = 0;
+    Node node = buildNode(tail);
+    if (position != body.size())
+      throw new RuntimeException("Malformed delta body");
+    return node;
+  }
+
+  private Node buildNode(boolean tail) {
+    ASTNode node = body.get(position++);
+    switch (node.getType()) {
+      case IDENTIFIER:
+        Variable variable = (Variable) node;
+        if (variable.isBound())
+          return variable.getDepth() == 0 ? new LocalNode(variable.getSlot())
+              : new LookupNode(variable.getDepth(), variable.getSlot());
+        return new UndeclaredNode(variable.getValue());
+      case INTRINSIC:
+        return new ConstantNode(((IntrinsicNode) node).getBuiltin());
+      case INTRINSIC_CALL:
+        Node[] arguments = new Node[((IntrinsicNode) node).getIntrinsic().getArity()];
+        for (int i = 0; i < arguments.length; i++)
+          arguments[i] = buildNode(false);
+        return new IntrinsicCallNode(((IntrinsicNode) node).getIntrinsic(), arguments);
+      case DELTA:
+        return new LambdaNode((Delta) node);
+      case BETA:
+        Beta beta = (Beta) node;
+        Node condition = buildNode(false);
+        Node thenPart = new NodeBuilder(interpreter, beta.getThenPart()).build(tail);
+        Node elsePart = new NodeBuilder(interpreter, beta.getElsePart()).build(tail);
+        return new ConditionalNode(condition, thenPart, elsePart);
+      case GAMMA:
+        Node rator = buildNode(false);
+        Node rand = buildNode(false);
+        if (tail)
+          return new TailApplyNode(interpreter, rator, rand);
+        return new UninitializedApplyNode(interpreter, rator, rand);
+      case TAU:
+        Node[] elements = new Node[((Tau) node).getNumElements()];
+        for (int i = 0; i < elements.length; i++)
+          elements[i] = buildNode(false);
+        return new TupleNode(elements);
+      case NOT:
+        return new NotNode(buildNode(false));
+      case NEG:
+        return new NegNode(buildNode(false));
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+      case EQ:
+      case NE:
+      case OR:
+      case AND:
+      case AUG:
+        Node left = buildNode(false);
+        Node right = buildNode(false);
+        return new UninitializedBinaryNode(node.getType(), left, right);
+      default:
+        return new ConstantNode(((Constant) node).getConstant());
+    }
+  }
+}
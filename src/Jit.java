@@ -0,0 +1,133 @@
+package src;
+
+import java.lang.invoke.MethodHandles;
+
+// Just-in-time compiler for the VM.
+// Deltas applied more than HOT_THRESHOLD times are translated to JVM bytecode by the
+// ClassGenerator and loaded as hidden classes, so the JVM can in turn compile them to
+// machine code. Compiled code calls back into the Jit for every application; deltas
+// that are not compiled (yet) are run by the VM interpreter.
+class Jit {
+  private static final int HOT_THRESHOLD = 1000;
+  // Compiled applications nest on the Java stack, deeper ones are left to the VM
+  private static final int MAX_DEPTH = 128;
+  // Returned by compiled code that ends with a tail application, see tailCall
+  private static final Value TAIL_CALL = new TailCall();
+
+  private final VM vm;
+  private int depth; // Number of compiled deltas currently running
+  private Value pendingRator; // Tail application requested by the last compiled code
+  private Value pendingRand;
+
+  Jit(VM vm) {
+    this.vm = vm;
+  }
+
+  // Decides whether an application of the block should run its compiled code
+  boolean useCompiledCode(CodeBlock block) {
+    return getCompiledCode(block) != null && depth < MAX_DEPTH;
+  }
+
+  // Runs the compiled code of the block, then the tail applications it requests
+  Value runCompiledCode(CodeBlock block, Environment env) {
+    depth++;
+    try {
+      Value result = block.getCompiledCode().run(env);
+      while (result == TAIL_CALL) {
+        Value rator = pendingRator;
+        Value rand = pendingRand;
+        pendingRator = null;
+        pendingRand = null;
+        while (rator.getType() == ValueType.ETA) {
+          // CSE rule 13
+          Eta eta = (Eta) rator;
+          rator = apply(eta, eta.getClosure());
+        }
+        if (rator.getType() != ValueType.CLOSURE) {
+          result = apply(rand, rator);
+          break;
+        }
+        Closure closure = (Closure) rator;
+        CodeBlock target = vm.getBlock(closure.getDelta().getIndex());
+        CompiledCode compiledCode = getCompiledCode(target);
+        if (compiledCode != null)
+          result = compiledCode.run(closure.bind(rand));
+        else
+          result = vm.call(target, closure.bind(rand));
+      }
+      return result;
+    } finally {
+      depth--;
+    }
+  }
+
+  // Applies rator to rand, called by the compiled code
+  Value apply(Value rand, Value rator) {
+    switch (rator.getType()) {
+      case CLOSURE:
+        Closure closure = (Closure) rator;
+        CodeBlock target = vm.getBlock(closure.getDelta().getIndex());
+        if (useCompiledCode(target))
+          return runCompiledCode(target, closure.bind(rand));
+        return vm.call(target, closure.bind(rand));
+      case YSTAR:
+        return ((Closure) rand).fix(); // CSE rule 12
+      case ETA:
+        Eta eta = (Eta) rator;
+        return apply(rand, apply(eta, eta.getClosure())); // CSE rule 13
+      case TUPLE:
+        return Primitives.select((Tuple) rator, rand);
+      case BUILTIN:
+        return Primitives.applyBuiltin((Builtin) rator, rand);
+      default:
+        throw new RuntimeException("Cannot apply a " + rator.getType() + " value");
+    }
+  }
+
+  // Application in tail position: compiled code returns it to runCompiledCode instead
+  // of making it, so tail recursive functions run in constant Java stack space
+  Value tailCall(Value rand, Value rator) {
+    pendingRator = rator;
+    pendingRand = rand;
+    return TAIL_CALL;
+  }
+
+  // Gives the compiled code of the block, compiling it once it becomes hot
+  private CompiledCode getCompiledCode(CodeBlock block) {
+    if (block.getCompiledCode() == null && !block.hasCompilationFailed()
+        && block.countInvocation() >= HOT_THRESHOLD)
+      compile(block);
+    return block.getCompiledCode();
+  }
+
+  private void compile(CodeBlock block) {
+    try {
+      ClassGenerator generator = new ClassGenerator(block, vm);
+      byte[] classFile = generator.generate();
+      Class<?> compiledClass = MethodHandles.lookup().defineHiddenClass(classFile, true).lookupClass();
+      Object code = compiledClass.getConstructor(Object[].class, Jit.class)
+          .newInstance(generator.getReferences(), this);
+      block.setCompiledCode((CompiledCode) code);
+    } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+      // the block keeps running on the interpreter
+      block.setCompilationFailed(true);
+    }
+  }
+
+  private static class TailCall extends Value {
+    @Override
+    public ValueType getType() {
+      return ValueType.DUMMY;
+    }
+
+    @Override
+    public String toString() {
+      return "tail call";
+    }
+  }
+}
+
+// Code of a delta compiled by the Jit
+interface CompiledCode {
+  Value run(Environment env);
+}
@@ -0,0 +1,114 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// Lifting of the definitions out of the functions they do not depend on.
+// A let or where inside a lambda, gamma(lambda x. body, E), evaluates E again on every
+// application of the lambda, building a closure and its environment each time when E
+// defines a helper function. When E is a lambda, a rec function or a tuple of them, so
+// evaluating it cannot fail, print or loop, and E uses none of the parameters of the
+// enclosing lambdas, the binding is moved out of the outermost of them. E is then
+// evaluated once per evaluation of that lambda, even if the function is never called:
+// lambda p. ... gamma(lambda x. body, E) ... becomes gamma(lambda x. lambda p. ... body ..., E).
+// A binding is not moved across a lambda binding one of its names, nor around code
+// that refers to another variable with the same name.
+class LambdaLifter {
+
+  public void lift(ASTNode root) {
+    boolean changed;
+    do {
+      changed = liftOne(root, new ArrayList<ASTNode>());
+    } while (changed);
+  }
+
+  // Lifts the first binding that can be lifted, in pre-order
+  private boolean liftOne(ASTNode node, List<ASTNode> ancestors) {
+    if (node.getType() == ASTNodeType.GAMMA && node.getChild().getType() == ASTNodeType.LAMBDA
+        && lift(node, ancestors))
+      return true;
+    ancestors.add(node);
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      if (liftOne(child, ancestors))
+        return true;
+    ancestors.remove(ancestors.size() - 1);
+    return false;
+  }
+
+  private boolean lift(ASTNode let, List<ASTNode> ancestors) {
+    ASTNode lambda = let.getChild();
+    ASTNode parameter = lambda.getChild();
+    ASTNode value = lambda.getSibling();
+    if (!Trees.cannotFail(value) || value.getType() == ASTNodeType.IDENTIFIER
+        || Constant.isConstant(value))
+      return false;
+
+    Set<String> names = new HashSet<String>();
+    for (ASTNode name : Trees.parameterNames(parameter))
+      names.add(name.getValue());
+    Set<String> freeNames = new HashSet<String>();
+    Trees.freeVariables(value, freeNames);
+
+    // the outermost lambda the binding can be moved out of
+    int target = -1;
+    int crossable = ancestors.size(); // Outermost lambda the binding can cross
+    for (int i = ancestors.size() - 1; i >= 0; i--) {
+      ASTNode ancestor = ancestors.get(i);
+      if (ancestor.getType() != ASTNodeType.LAMBDA)
+        continue;
+      Set<String> bound = new HashSet<String>();
+      for (ASTNode name : Trees.parameterNames(ancestor.getChild()))
+        bound.add(name.getValue());
+      if (!Trees.disjoint(bound, freeNames) || !Trees.disjoint(bound, names))
+        break;
+      crossable = i;
+      if (isFunction(ancestors, i) && !refersToAny(ancestor, names))
+        target = i;
+    }
+    if (target < 0)
+      return false;
+
+    // the function of a rec stays the body of the lambda given to Y*, the binding goes
+    // around the whole rec
+    if (target >= 2 && crossable <= target - 1 && isRec(ancestors.get(target - 2))
+        && !refersToAny(ancestors.get(target - 2), names))
+      target -= 2;
+
+    Trees.replace(let, parameter.getSibling());
+    ASTNode wrapped = ancestors.get(target);
+    ASTNode content = new ASTNode();
+    content.setType(wrapped.getType());
+    content.setValue(wrapped.getValue());
+    content.setChild(wrapped.getChild());
+    parameter.setSibling(content);
+    lambda.setSibling(value);
+    value.setSibling(null);
+    wrapped.setType(ASTNodeType.GAMMA);
+    wrapped.setValue(null);
+    wrapped.setChild(lambda);
+    return true;
+  }
+
+  // Whether the lambda can be applied many times: the lambda of a let is applied once
+  // where it stands, and the one given to Y* once by rec
+  private static boolean isFunction(List<ASTNode> ancestors, int i) {
+    if (i == 0)
+      return true;
+    ASTNode parent = ancestors.get(i - 1);
+    return parent.getType() != ASTNodeType.GAMMA
+        || (parent.getChild() != ancestors.get(i) && parent.getChild().getType() != ASTNodeType.YSTAR);
+  }
+
+  private static boolean isRec(ASTNode node) {
+    return node.getType() == ASTNodeType.GAMMA && node.getChild().getType() == ASTNodeType.YSTAR;
+  }
+
+  // Whether the subtree refers to one of the names, other than through a binding of its own
+  private static boolean refersToAny(ASTNode node, Set<String> names) {
+    Set<String> freeNames = new HashSet<String>();
+    Trees.freeVariables(node, freeNames);
+    return !Trees.disjoint(freeNames, names);
+  }
+}
@@ -0,0 +1,89 @@
+package src;
+
+import java.nio.ByteBuffer;
+
+// Reserved words and operators the parser knows, found from their text through a
+// perfect hash: the hash of the first character, the last one and the length gives a
+// different slot of TABLE for each of them, so a lookup compares one candidate only.
+enum Lexeme {
+  LET("let"), IN("in"), WITHIN("within"), FN("fn"), WHERE("where"), AUG("aug"), OR("or"),
+  NOT("not"), GR("gr"), GE("ge"), LS("ls"), LE("le"), EQ("eq"), NE("ne"), TRUE("true"),
+  FALSE("false"), NIL("nil"), DUMMY("dummy"), REC("rec"), AND("and"),
+
+  AMPERSAND("&"), TIMES("*"), POWER("**"), PLUS("+"), COMMA(","), MINUS("-"), ARROW("->"),
+  DOT("."), DIVIDE("/"), LESS("<"), LESS_EQUAL("<="), EQUAL("="), GREATER(">"),
+  GREATER_EQUAL(">="), AT("@"), BAR("|");
+
+  private static final int TABLE_SIZE = 128; // Power of two
+  private static final int MAX_FACTOR = 64;
+
+  private static int firstFactor;
+  private static int lastFactor;
+  private static final Lexeme[] TABLE = table();
+
+  private final String text;
+  private final TokenType type;
+
+  Lexeme(String text) {
+    this.text = text;
+    this.type = Character.isLetter(text.charAt(0)) ? TokenType.RESERVED : TokenType.OPERATOR;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  // RESERVED for the reserved words, OPERATOR for the operators
+  public TokenType getType() {
+    return type;
+  }
+
+  // The lexeme written as text, null when there is none
+  public static Lexeme forText(String text) {
+    int length = text.length();
+    if (length == 0)
+      return null;
+    Lexeme lexeme = TABLE[hash(text.charAt(0), text.charAt(length - 1), length)];
+    return lexeme != null && lexeme.text.equals(text) ? lexeme : null;
+  }
+
+  // The lexeme written in the length bytes of source at offset, null when there is none
+  public static Lexeme forBytes(ByteBuffer source, int offset, int length) {
+    if (length == 0)
+      return null;
+    Lexeme lexeme = TABLE[hash(source.get(offset) & 0xff, source.get(offset + length - 1) & 0xff, length)];
+    if (lexeme == null || lexeme.text.length() != length)
+      return null;
+    for (int i = 0; i < length; i++)
+      if (lexeme.text.charAt(i) != source.get(offset + i))
+        return null;
+    return lexeme;
+  }
+
+  private static int hash(int first, int last, int length) {
+    return (first * firstFactor + last * lastFactor + length) & (TABLE_SIZE - 1);
+  }
+
+  // Searches the factors of the hash giving no collision
+  private static Lexeme[] table() {
+    for (firstFactor = 1; firstFactor < MAX_FACTOR; firstFactor++)
+      for (lastFactor = 1; lastFactor < MAX_FACTOR; lastFactor++) {
+        Lexeme[] table = fill();
+        if (table != null)
+          return table;
+      }
+    throw new IllegalStateException("No perfect hash for the lexemes");
+  }
+
+  private static Lexeme[] fill() {
+    Lexeme[] table = new Lexeme[TABLE_SIZE];
+    for (Lexeme lexeme : values()) {
+      String text = lexeme.text;
+      int slot = hash(text.charAt(0), text.charAt(text.length() - 1), text.length());
+      if (table[slot] != null)
+        return null;
+      table[slot] = lexeme;
+    }
+    return table;
+  }
+}
@@ -0,0 +1,170 @@
+package src;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Scanner reading the source file mapped in memory (the -mmap mode).
+// Each byte is classified through a table instead of the LexRegex patterns, and the
+// tokens are runs of bytes recognized by a hand-written automaton: they only record
+// their offset and length in the buffer, their text is decoded when the parser asks
+// for it, and never for the reserved words and operators found in Lexeme. Spaces and
+// comments are skipped instead of becoming DELETE tokens. Strings and comments may
+// hold any byte, the text of a string is decoded as UTF-8; otherwise the tokens are
+// those of the Scanner.
+class MappedScanner {
+  // Classes of the bytes
+  private static final byte OTHER = 0;
+  private static final byte LETTER = 1;
+  private static final byte DIGIT = 2;
+  private static final byte UNDERSCORE = 3; // Part of identifiers and an operator symbol
+  private static final byte OPERATOR = 4;
+  private static final byte QUOTE = 5;
+  private static final byte SPACE = 6;
+  private static final byte PUNCTUATION = 7;
+
+  private static final byte[] CLASSES = classes();
+
+  private final ByteBuffer buffer;
+  private final int limit;
+  private int position;
+
+  public MappedScanner(String inputFile) throws IOException {
+    try (FileChannel channel = FileChannel.open(Paths.get(inputFile), StandardOpenOption.READ)) {
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    limit = buffer.limit();
+  }
+
+  private static byte[] classes() {
+    byte[] classes = new byte[256];
+    for (int c = 'a'; c <= 'z'; c++)
+      classes[c] = LETTER;
+    for (int c = 'A'; c <= 'Z'; c++)
+      classes[c] = LETTER;
+    for (int c = '0'; c <= '9'; c++)
+      classes[c] = DIGIT;
+    // the comma is in the range +-/ of the operator symbols of the Scanner, the
+    // parser expects it as an operator
+    for (char c : "+,-/~:=|!#%{}\"*<>.&$^[]?@".toCharArray())
+      classes[c] = OPERATOR;
+    classes['_'] = UNDERSCORE;
+    classes['\''] = QUOTE;
+    for (char c : " \t\n\u000B\f\r".toCharArray())
+      classes[c] = SPACE;
+    for (char c : "();".toCharArray())
+      classes[c] = PUNCTUATION;
+    return classes;
+  }
+
+  private byte classAt(int index) {
+    return CLASSES[buffer.get(index) & 0xff];
+  }
+
+  // Reads the next token, null at the end of the input or on a byte no token starts with
+  public Token readNextToken() {
+    skipSpacesAndComments();
+    if (position >= limit)
+      return null;
+
+    int start = position;
+    switch (classAt(position++)) {
+      case LETTER:
+        while (position < limit && isIdentifierPart(classAt(position)))
+          position++;
+        return word(start);
+      case DIGIT:
+        while (position < limit && classAt(position) == DIGIT)
+          position++;
+        return token(TokenType.INTEGER, start);
+      case OPERATOR:
+      case UNDERSCORE:
+        while (position < limit && isOperatorPart(classAt(position)))
+          position++;
+        return operator(start);
+      case QUOTE:
+        while (position < limit && buffer.get(position) != '\'')
+          position++;
+        if (position >= limit)
+          return null; // the string is not terminated
+        Token string = new Token();
+        string.setType(TokenType.STRING);
+        string.setSource(buffer, start + 1, position - start - 1);
+        position++;
+        return string;
+      case PUNCTUATION:
+        return punctuation(buffer.get(start));
+      default:
+        position = limit;
+        return null;
+    }
+  }
+
+  // Spaces, and comments from // to the end of the line
+  private void skipSpacesAndComments() {
+    while (position < limit) {
+      byte b = buffer.get(position);
+      if (CLASSES[b & 0xff] == SPACE)
+        position++;
+      else if (b == '/' && position + 1 < limit && buffer.get(position + 1) == '/') {
+        while (position < limit && buffer.get(position) != '\n')
+          position++;
+      } else
+        return;
+    }
+  }
+
+  private static boolean isIdentifierPart(byte c) {
+    return c == LETTER || c == DIGIT || c == UNDERSCORE;
+  }
+
+  private static boolean isOperatorPart(byte c) {
+    return c == OPERATOR || c == UNDERSCORE;
+  }
+
+  // A reserved word or an identifier
+  private Token word(int start) {
+    Lexeme lexeme = Lexeme.forBytes(buffer, start, position - start);
+    if (lexeme == null || lexeme.getType() != TokenType.RESERVED)
+      return token(TokenType.IDENTIFIER, start);
+    Token token = new Token();
+    token.setType(TokenType.RESERVED);
+    token.setLexeme(lexeme);
+    return token;
+  }
+
+  // The text of the operators the parser knows is never decoded
+  private Token operator(int start) {
+    Lexeme lexeme = Lexeme.forBytes(buffer, start, position - start);
+    if (lexeme == null)
+      return token(TokenType.OPERATOR, start);
+    Token token = new Token();
+    token.setType(TokenType.OPERATOR);
+    token.setLexeme(lexeme);
+    return token;
+  }
+
+  private Token token(TokenType type, int start) {
+    Token token = new Token();
+    token.setType(type);
+    token.setSource(buffer, start, position - start);
+    return token;
+  }
+
+  private static Token punctuation(byte c) {
+    Token token = new Token();
+    if (c == '(') {
+      token.setType(TokenType.L_PAREN);
+      token.setValue("(");
+    } else if (c == ')') {
+      token.setType(TokenType.R_PAREN);
+      token.setValue(")");
+    } else {
+      token.setType(TokenType.SEMICOLON);
+      token.setValue(";");
+    }
+    return token;
+  }
+}
@@ -0,0 +1,143 @@
+package src;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Cache of the results of recursive functions for the -memo mode of the CSE machine.
+// Only applications of a rec function are cached: the closure Y* fixes, or the eta
+// closure of the rec definitions it cannot fix. They are cached only when the
+// EffectAnalysis found that applying the function never prints unless what it
+// receives does, and everything it receives is plain data: the argument and the
+// values captured by its closure. Keys compare that data structurally, and the least
+// recently used results are evicted once MAX_ENTRIES are cached. The cache is shared
+// by the machines evaluating tuple elements in the -par mode.
+class Memoizer {
+  private static final int MAX_ENTRIES = 100000;
+
+  private final Map<MemoKey, Value> results = new LinkedHashMap<MemoKey, Value>(1024, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<MemoKey, Value> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  // Gives the key of the application of eta to rand, null if it must not be cached
+  public MemoKey keyFor(Eta eta, Value rand) {
+    return keyFor(eta, eta.getClosure(), rand);
+  }
+
+  // Gives the key of the application of the closure of a rec function to rand, null if
+  // it must not be cached. The closure captures itself as the recursive name.
+  public MemoKey keyFor(Closure fixedPoint, Value rand) {
+    return keyFor(fixedPoint, fixedPoint, rand);
+  }
+
+  private MemoKey keyFor(Value function, Closure closure, Value rand) {
+    if (closure.getDelta().getEffect() == Effect.EFFECTFUL || !MemoKey.isData(rand))
+      return null;
+    Environment captured = closure.getEnvironment();
+    if (captured != null)
+      for (int i = 0; i < captured.size(); i++) {
+        Value value = captured.lookup(0, i);
+        if (value != function && !MemoKey.isData(value))
+          return null;
+      }
+    return new MemoKey(function, rand);
+  }
+
+  public synchronized Value lookup(MemoKey key) {
+    return results.get(key);
+  }
+
+  public synchronized void store(MemoKey key, Value result) {
+    results.put(key, result);
+  }
+}
+
+// Key of a cached application: the rec function applied, compared by identity, and
+// the argument, compared structurally
+class MemoKey {
+  private final Value function;
+  private final Value rand;
+  private final int hash;
+
+  public MemoKey(Value function, Value rand) {
+    this.function = function;
+    this.rand = rand;
+    hash = 31 * System.identityHashCode(function) + hashOf(rand);
+  }
+
+  // Whether the value is made of integers, strings, truth values, dummy and tuples of them
+  public static boolean isData(Value value) {
+    if (value == null)
+      return false;
+    switch (value.getType()) {
+      case INTEGER:
+      case STRING:
+      case TRUE:
+      case FALSE:
+      case DUMMY:
+        return true;
+      case TUPLE:
+        Tuple tuple = (Tuple) value;
+        for (int i = 1; i <= tuple.size(); i++)
+          if (!isData(tuple.get(i)))
+            return false;
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static int hashOf(Value value) {
+    switch (value.getType()) {
+      case INTEGER:
+        return Long.hashCode(((IntegerValue) value).getInt());
+      case STRING:
+        return value.toString().hashCode();
+      case TUPLE:
+        Tuple tuple = (Tuple) value;
+        int hash = 1;
+        for (int i = 1; i <= tuple.size(); i++)
+          hash = 31 * hash + hashOf(tuple.get(i));
+        return hash;
+      default:
+        return value.getType().hashCode();
+    }
+  }
+
+  private static boolean sameData(Value value1, Value value2) {
+    if (value1.getType() != value2.getType())
+      return false;
+    switch (value1.getType()) {
+      case INTEGER:
+        return ((IntegerValue) value1).getInt() == ((IntegerValue) value2).getInt();
+      case STRING:
+        return ((StringValue) value1).contentEquals((StringValue) value2);
+      case TUPLE:
+        Tuple tuple1 = (Tuple) value1;
+        Tuple tuple2 = (Tuple) value2;
+        if (tuple1.size() != tuple2.size())
+          return false;
+        for (int i = 1; i <= tuple1.size(); i++)
+          if (!sameData(tuple1.get(i), tuple2.get(i)))
+            return false;
+        return true;
+      default:
+        return true; // truth values and dummy, their type is their value
+    }
+  }
+
+  @Override
+  public int hashCode() {
+    return hash;
+  }
+
+  @Override
+  public boolean equals(Object object) {
+    if (!(object instanceof MemoKey))
+      return false;
+    MemoKey other = (MemoKey) object;
+    return function == other.function && hash == other.hash && sameData(rand, other.rand);
+  }
+}
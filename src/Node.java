@@ -0,0 +1,452 @@
+package src;
+
+// Base class for the nodes executed by the Interpreter.
+// Children are evaluated in the order the CSE machine pops them from the control:
+// the rand before the rator, the right operand before the left one and the last
+// tuple element first, so side effects happen in the same order on every engine.
+abstract class Node {
+  private Node parent;
+
+  abstract Value execute(Environment env);
+
+  // Makes this node the parent of child
+  protected <T extends Node> T adopt(T child) {
+    ((Node) child).parent = this;
+    return child;
+  }
+
+  // Rewrites this node into newNode in the tree, later executions only see newNode
+  protected <T extends Node> T replace(T newNode) {
+    parent.replaceChild(this, parent.adopt(newNode));
+    return newNode;
+  }
+
+  protected void replaceChild(Node oldChild, Node newChild) {
+    throw new RuntimeException(getClass().getSimpleName() + " has no child to replace");
+  }
+}
+
+// Root of the tree of a delta body
+class FunctionBody extends Node {
+  private Node body;
+
+  FunctionBody(Node body) {
+    this.body = adopt(body);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return body.execute(env);
+  }
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    body = newChild;
+  }
+}
+
+class ConstantNode extends Node {
+  private final Value value;
+
+  ConstantNode(Value value) {
+    this.value = value;
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return value;
+  }
+}
+
+// Variable bound by the delta itself (CSE rule 1)
+class LocalNode extends Node {
+  private final int slot;
+
+  LocalNode(int slot) {
+    this.slot = slot;
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return env.lookup(0, slot);
+  }
+}
+
+// Variable bound by an enclosing delta (CSE rule 1)
+class LookupNode extends Node {
+  private final int depth;
+  private final int slot;
+
+  LookupNode(int depth, int slot) {
+    this.depth = depth;
+    this.slot = slot;
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return env.lookup(depth, slot);
+  }
+}
+
+class UndeclaredNode extends Node {
+  private final String name;
+
+  UndeclaredNode(String name) {
+    this.name = name;
+  }
+
+  @Override
+  Value execute(Environment env) {
+    throw new RuntimeException("Undeclared identifier: " + name);
+  }
+}
+
+// CSE rule 2
+class LambdaNode extends Node {
+  private final Delta delta;
+
+  LambdaNode(Delta delta) {
+    this.delta = delta;
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return Closure.capture(delta, env);
+  }
+}
+
+// CSE rule 9
+class TupleNode extends Node {
+  private final Node[] elements;
+
+  TupleNode(Node[] elements) {
+    this.elements = elements;
+    for (Node element : elements)
+      adopt(element);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    Value[] values = new Value[elements.length];
+    for (int i = elements.length - 1; i >= 0; i--)
+      values[i] = elements[i].execute(env);
+    return new Tuple(values);
+  }
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    for (int i = 0; i < elements.length; i++)
+      if (elements[i] == oldChild)
+        elements[i] = newChild;
+  }
+}
+
+// CSE rule 8
+class ConditionalNode extends Node {
+  private Node condition;
+  private Node thenPart;
+  private Node elsePart;
+
+  ConditionalNode(Node condition, Node thenPart, Node elsePart) {
+    this.condition = adopt(condition);
+    this.thenPart = adopt(thenPart);
+    this.elsePart = adopt(elsePart);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    if (condition.execute(env) == TruthValue.TRUE)
+      return thenPart.execute(env);
+    return elsePart.execute(env);
+  }
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    if (condition == oldChild)
+      condition = newChild;
+    else if (thenPart == oldChild)
+      thenPart = newChild;
+    else
+      elsePart = newChild;
+  }
+}
+
+// Base class for the unary operators (CSE rule 7)
+abstract class UnaryNode extends Node {
+  protected Node operand;
+
+  UnaryNode(Node operand) {
+    this.operand = adopt(operand);
+  }
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    operand = newChild;
+  }
+}
+
+class NotNode extends UnaryNode {
+  NotNode(Node operand) {
+    super(operand);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return TruthValue.of(operand.execute(env) != TruthValue.TRUE);
+  }
+}
+
+class NegNode extends UnaryNode {
+  NegNode(Node operand) {
+    super(operand);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    return IntegerValue.of(-((IntegerValue) operand.execute(env)).getInt());
+  }
+}
+
+// Base class for the binary operators (CSE rule 6), rand1 is the left operand
+abstract class BinaryNode extends Node {
+  protected final ASTNodeType operator;
+  protected Node left;
+  protected Node right;
+
+  BinaryNode(ASTNodeType operator, Node left, Node right) {
+    this.operator = operator;
+    this.left = adopt(left);
+    this.right = adopt(right);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    Value rand2 = right.execute(env);
+    Value rand1 = left.execute(env);
+    return executeOn(rand1, rand2);
+  }
+
+  abstract Value executeOn(Value rand1, Value rand2);
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    if (left == oldChild)
+      left = newChild;
+    else
+      right = newChild;
+  }
+
+  // Operators that can be specialized for two integers
+  protected static boolean isIntegerOperator(ASTNodeType operator) {
+    switch (operator) {
+      case OR:
+      case AND:
+      case AUG:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  protected static Value integerOperation(ASTNodeType operator, long rand1, long rand2) {
+    switch (operator) {
+      case PLUS:
+        return IntegerValue.of(rand1 + rand2);
+      case MINUS:
+        return IntegerValue.of(rand1 - rand2);
+      case MULT:
+        return IntegerValue.of(rand1 * rand2);
+      case DIV:
+        return IntegerValue.of(rand1 / rand2);
+      case EXP:
+        return IntegerValue.of(Primitives.power(rand1, rand2));
+      case LS:
+        return TruthValue.of(rand1 < rand2);
+      case LE:
+        return TruthValue.of(rand1 <= rand2);
+      case GR:
+        return TruthValue.of(rand1 > rand2);
+      case GE:
+        return TruthValue.of(rand1 >= rand2);
+      case EQ:
+        return TruthValue.of(rand1 == rand2);
+      case NE:
+        return TruthValue.of(rand1 != rand2);
+      default:
+        throw new RuntimeException("Not an integer operator: " + operator);
+    }
+  }
+}
+
+// Operator that has not been executed yet, it specializes itself on its first operands
+class UninitializedBinaryNode extends BinaryNode {
+  UninitializedBinaryNode(ASTNodeType operator, Node left, Node right) {
+    super(operator, left, right);
+  }
+
+  @Override
+  Value executeOn(Value rand1, Value rand2) {
+    BinaryNode specialized;
+    if (isIntegerOperator(operator) && rand1 instanceof IntegerValue && rand2 instanceof IntegerValue)
+      specialized = new IntegerBinaryNode(operator, left, right);
+    else
+      specialized = new GenericBinaryNode(operator, left, right);
+    return replace(specialized).executeOn(rand1, rand2);
+  }
+}
+
+// Operator that has only seen integers, it becomes generic when the guard fails
+class IntegerBinaryNode extends BinaryNode {
+  IntegerBinaryNode(ASTNodeType operator, Node left, Node right) {
+    super(operator, left, right);
+  }
+
+  @Override
+  Value executeOn(Value rand1, Value rand2) {
+    if (rand1 instanceof IntegerValue && rand2 instanceof IntegerValue)
+      return integerOperation(operator, ((IntegerValue) rand1).getInt(), ((IntegerValue) rand2).getInt());
+    return replace(new GenericBinaryNode(operator, left, right)).executeOn(rand1, rand2);
+  }
+}
+
+class GenericBinaryNode extends BinaryNode {
+  GenericBinaryNode(ASTNodeType operator, Node left, Node right) {
+    super(operator, left, right);
+  }
+
+  @Override
+  Value executeOn(Value rand1, Value rand2) {
+    switch (operator) {
+      case EQ:
+        return TruthValue.of(Primitives.equal(rand1, rand2));
+      case NE:
+        return TruthValue.of(!Primitives.equal(rand1, rand2));
+      case OR:
+        return TruthValue.of(((TruthValue) rand1).getBoolean() || ((TruthValue) rand2).getBoolean());
+      case AND:
+        return TruthValue.of(((TruthValue) rand1).getBoolean() && ((TruthValue) rand2).getBoolean());
+      case AUG:
+        return Primitives.aug(rand1, rand2);
+      default:
+        return integerOperation(operator, ((IntegerValue) rand1).getInt(), ((IntegerValue) rand2).getInt());
+    }
+  }
+}
+
+// Built-in function applied to all of its arguments, the last one is evaluated first
+class IntrinsicCallNode extends Node {
+  private final Intrinsic intrinsic;
+  private final Node[] arguments;
+
+  IntrinsicCallNode(Intrinsic intrinsic, Node[] arguments) {
+    this.intrinsic = intrinsic;
+    this.arguments = arguments;
+    for (Node argument : arguments)
+      adopt(argument);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    if (intrinsic == Intrinsic.CONC) {
+      Value rand2 = arguments[1].execute(env);
+      return Primitives.conc(arguments[0].execute(env), rand2);
+    }
+    return Primitives.applyIntrinsic(intrinsic, arguments[0].execute(env));
+  }
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    for (int i = 0; i < arguments.length; i++)
+      if (arguments[i] == oldChild)
+        arguments[i] = newChild;
+  }
+}
+
+// Base class for the applications (CSE rule 3)
+abstract class ApplyNode extends Node {
+  protected final Interpreter interpreter;
+  protected Node rator;
+  protected Node rand;
+
+  ApplyNode(Interpreter interpreter, Node rator, Node rand) {
+    this.interpreter = interpreter;
+    this.rator = adopt(rator);
+    this.rand = adopt(rand);
+  }
+
+  @Override
+  Value execute(Environment env) {
+    Value randValue = rand.execute(env);
+    Value ratorValue = rator.execute(env);
+    return executeOn(ratorValue, randValue);
+  }
+
+  abstract Value executeOn(Value ratorValue, Value randValue);
+
+  @Override
+  protected void replaceChild(Node oldChild, Node newChild) {
+    if (rator == oldChild)
+      rator = newChild;
+    else
+      rand = newChild;
+  }
+}
+
+// Application that has not been executed yet, it specializes itself on its first rator
+class UninitializedApplyNode extends ApplyNode {
+  UninitializedApplyNode(Interpreter interpreter, Node rator, Node rand) {
+    super(interpreter, rator, rand);
+  }
+
+  @Override
+  Value executeOn(Value ratorValue, Value randValue) {
+    ApplyNode specialized;
+    if (ratorValue.getType() == ValueType.CLOSURE)
+      specialized = new CachedApplyNode(interpreter, rator, rand, ((Closure) ratorValue).getDelta());
+    else
+      specialized = new GenericApplyNode(interpreter, rator, rand);
+    return replace(specialized).executeOn(ratorValue, randValue);
+  }
+}
+
+// Application whose rator has always been a closure of the same delta
+class CachedApplyNode extends ApplyNode {
+  private final Delta delta;
+  private final FunctionBody body;
+
+  CachedApplyNode(Interpreter interpreter, Node rator, Node rand, Delta delta) {
+    super(interpreter, rator, rand);
+    this.delta = delta;
+    body = interpreter.getBody(delta);
+  }
+
+  @Override
+  Value executeOn(Value ratorValue, Value randValue) {
+    if (ratorValue instanceof Closure && ((Closure) ratorValue).getDelta() == delta)
+      return interpreter.execute(body, ((Closure) ratorValue).bind(randValue));
+    return replace(new GenericApplyNode(interpreter, rator, rand)).executeOn(ratorValue, randValue);
+  }
+}
+
+class GenericApplyNode extends ApplyNode {
+  GenericApplyNode(Interpreter interpreter, Node rator, Node rand) {
+    super(interpreter, rator, rand);
+  }
+
+  @Override
+  Value executeOn(Value ratorValue, Value randValue) {
+    return interpreter.apply(ratorValue, randValue);
+  }
+}
+
+// Application in tail position, made by the Interpreter once the body has returned
+class TailApplyNode extends ApplyNode {
+  TailApplyNode(Interpreter interpreter, Node rator, Node rand) {
+    super(interpreter, rator, rand);
+  }
+
+  @Override
+  Value executeOn(Value ratorValue, Value randValue) {
+    return interpreter.tailCall(ratorValue, randValue);
+  }
+}
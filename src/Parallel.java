@@ -0,0 +1,129 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+import java.util.concurrent.RecursiveTask;
+
+// Class representing a tau whose elements may be evaluated in parallel (the -par mode).
+// createDeltas builds one when at least two elements contain applications, each element
+// keeping its own control. An element is forked when it is pure: the EffectAnalysis
+// found it pure, or left it UNKNOWN and the variables it uses hold pure values when
+// the tau is reached.
+class ParallelTau extends ASTNode {
+  private final List<Stack<ASTNode>> elements;
+  private final ASTNode[][] elementCodes; // The elements as arrays, run from their end
+  private final boolean[] expensive; // Elements worth a task of their own
+  private final Effect[] effects; // Effect of evaluating each element
+  private List<List<Variable>> usedVariables; // Variables read by each element, once collected
+
+  public ParallelTau(List<Stack<ASTNode>> elements, boolean[] expensive, Effect[] effects) {
+    setType(ASTNodeType.PARALLEL_TAU);
+    this.elements = elements;
+    elementCodes = new ASTNode[elements.size()][];
+    for (int i = 0; i < elements.size(); i++)
+      elementCodes[i] = elements.get(i).toArray(new ASTNode[elements.get(i).size()]);
+    this.expensive = expensive;
+    this.effects = effects;
+  }
+
+  public int getNumElements() {
+    return elements.size();
+  }
+
+  public Stack<ASTNode> getElement(int i) {
+    return elements.get(i);
+  }
+
+  public ASTNode[] getElementCode(int i) {
+    return elementCodes[i];
+  }
+
+  // Whether the ith element can be evaluated on its own in the given environment
+  public boolean canFork(int i, Environment env) {
+    if (!expensive[i] || effects[i] == Effect.EFFECTFUL)
+      return false;
+    if (effects[i] == Effect.PURE)
+      return true;
+    for (Variable variable : getUsedVariables().get(i))
+      if (!EffectAnalysis.isPure(env.lookup(variable.getDepth(), variable.getSlot())))
+        return false;
+    return true;
+  }
+
+  // The free variables of the nested deltas are only known once createDeltas has
+  // returned, so they are collected the first time they are needed
+  private synchronized List<List<Variable>> getUsedVariables() {
+    if (usedVariables == null) {
+      usedVariables = new ArrayList<List<Variable>>();
+      for (Stack<ASTNode> element : elements) {
+        List<Variable> variables = new ArrayList<Variable>();
+        collectVariables(element, variables);
+        usedVariables.add(variables);
+      }
+    }
+    return usedVariables;
+  }
+
+  // Variables of the current environment read by a body, directly or by the closures it creates
+  private static void collectVariables(Stack<ASTNode> body, List<Variable> variables) {
+    for (ASTNode node : body) {
+      switch (node.getType()) {
+        case IDENTIFIER:
+          if (((Variable) node).isBound())
+            variables.add((Variable) node);
+          break;
+        case DELTA:
+          variables.addAll(((Delta) node).getFreeVariables());
+          break;
+        case BETA:
+          collectVariables(((Beta) node).getThenPart(), variables);
+          collectVariables(((Beta) node).getElsePart(), variables);
+          break;
+        case PARALLEL_TAU:
+          ParallelTau tau = (ParallelTau) node;
+          for (int i = 0; i < tau.getNumElements(); i++)
+            collectVariables(tau.getElement(i), variables);
+          break;
+        default:
+          break;
+      }
+    }
+  }
+}
+
+// Class representing the point on the control where the elements of a ParallelTau
+// have been evaluated: the inline ones are on the stack, the forked ones are joined
+class TupleJoin extends ASTNode {
+  private final TupleTask[] tasks; // Task of each forked element, null for the inline ones
+
+  public TupleJoin(TupleTask[] tasks) {
+    setType(ASTNodeType.TUPLE_JOIN);
+    this.tasks = tasks;
+  }
+
+  public TupleTask[] getTasks() {
+    return tasks;
+  }
+}
+
+// Evaluation of a tau element on a CSE machine of its own, with its own stacks
+// and frame pool
+class TupleTask extends RecursiveTask<Value> {
+  private static final long serialVersionUID = 1L;
+
+  private final ASTNode[] body;
+  private final Environment env;
+  private final Memoizer memoizer; // Cache shared with the forking machine, null unless -memo
+
+  public TupleTask(ASTNode[] body, Environment env, Memoizer memoizer) {
+    this.body = body;
+    this.env = env;
+    this.memoizer = memoizer;
+  }
+
+  @Override
+  protected Value compute() {
+    return new CSEM(body, env, memoizer).evaluateBody();
+  }
+}
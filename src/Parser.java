@@ -5,7 +5,10 @@ import java.util.Stack;
 // Uses recursive descent parsing
 public class Parser {
   private Scanner s;
-  private Token currentToken;
+  private TokenStream tokens;
+  private int index = -1; // Position of the current token in the stream
+  private int kind;       // Kind and code of the current token, see TokenStream
+  private int code;
   Stack<ASTNode> stack;
 
   public Parser(Scanner s) {
@@ -19,41 +22,34 @@ public class Parser {
   }
 
   public void startParse() {
+    tokens = new TokenStream(s);
     readNT();
     procE();
-    if (currentToken != null)
+    if (kind != TokenStream.EOF)
       throw new ParseException("Expected EOF.");
   }
 
   private void readNT() {
-    do {
-      currentToken = s.readNextToken();
-    } while (isCurrentTokenType(TokenType.DELETE));
-    if (null != currentToken) {
-      if (currentToken.getType() == TokenType.IDENTIFIER) {
-        createTerminalASTNode(ASTNodeType.IDENTIFIER, currentToken.getValue());
-      } else if (currentToken.getType() == TokenType.INTEGER) {
-        createTerminalASTNode(ASTNodeType.INTEGER, currentToken.getValue());
-      } else if (currentToken.getType() == TokenType.STRING) {
-        createTerminalASTNode(ASTNodeType.STRING, currentToken.getValue());
+    index++;
+    kind = tokens.kind(index);
+    if (kind != TokenStream.EOF) {
+      code = tokens.code(index);
+      if (kind == TokenType.IDENTIFIER.ordinal()) {
+        createTerminalASTNode(ASTNodeType.IDENTIFIER, tokens.symbol(index));
+      } else if (kind == TokenType.INTEGER.ordinal()) {
+        createTerminalASTNode(ASTNodeType.INTEGER, tokens.symbol(index));
+      } else if (kind == TokenType.STRING.ordinal()) {
+        createTerminalASTNode(ASTNodeType.STRING, tokens.symbol(index));
       }
     }
   }
 
-  private boolean isCurrentToken(TokenType type, String value) {
-    if (currentToken == null)
-      return false;
-    if (currentToken.getType() != type || !currentToken.getValue().equals(value))
-      return false;
-    return true;
+  private boolean isCurrentToken(Lexeme lexeme) {
+    return kind == lexeme.getType().ordinal() && code == lexeme.ordinal();
   }
 
   private boolean isCurrentTokenType(TokenType type) {
-    if (currentToken == null)
-      return false;
-    if (currentToken.getType() == type)
-      return true;
-    return false;
+    return kind == type.ordinal();
   }
 
   // Building an N-ary ast node
@@ -79,15 +75,15 @@ public class Parser {
 
   // Expressions
   private void procE() {
-    if (isCurrentToken(TokenType.RESERVED, "let")) {
+    if (isCurrentToken(Lexeme.LET)) {
       readNT();
       procD();
-      if (!isCurrentToken(TokenType.RESERVED, "in"))
+      if (!isCurrentToken(Lexeme.IN))
         throw new ParseException("E:  'in' expected");
       readNT();
       procE();
       buildNAryASTNode(ASTNodeType.LET, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "fn")) {
+    } else if (isCurrentToken(Lexeme.FN)) {
       int treesToPop = 0;
 
       readNT();
@@ -99,7 +95,7 @@ public class Parser {
       if (treesToPop == 0)
         throw new ParseException("E: at least one 'Vb' expected");
 
-      if (!isCurrentToken(TokenType.OPERATOR, "."))
+      if (!isCurrentToken(Lexeme.DOT))
         throw new ParseException("E: '.' expected");
 
       readNT();
@@ -112,7 +108,7 @@ public class Parser {
 
   private void procEW() {
     procT();
-    if (isCurrentToken(TokenType.RESERVED, "where")) {
+    if (isCurrentToken(Lexeme.WHERE)) {
       readNT();
       procDR();
       buildNAryASTNode(ASTNodeType.WHERE, 2);
@@ -121,10 +117,10 @@ public class Parser {
 
   // Arithmetic Expressions
   private void procA() {
-    if (isCurrentToken(TokenType.OPERATOR, "+")) {
+    if (isCurrentToken(Lexeme.PLUS)) {
       readNT();
       procAT();
-    } else if (isCurrentToken(TokenType.OPERATOR, "-")) {
+    } else if (isCurrentToken(Lexeme.MINUS)) {
       readNT();
       procAT();
       buildNAryASTNode(ASTNodeType.NEG, 1);
@@ -132,11 +128,8 @@ public class Parser {
       procAT();
 
     boolean plus = true;
-    while (isCurrentToken(TokenType.OPERATOR, "+") || isCurrentToken(TokenType.OPERATOR, "-")) {
-      if (currentToken.getValue().equals("+"))
-        plus = true;
-      else if (currentToken.getValue().equals("-"))
-        plus = false;
+    while (isCurrentToken(Lexeme.PLUS) || isCurrentToken(Lexeme.MINUS)) {
+      plus = isCurrentToken(Lexeme.PLUS);
       readNT();
       procAT();
       if (plus)
@@ -149,11 +142,8 @@ public class Parser {
   private void procAT() {
     procAF();
     boolean mult = true;
-    while (isCurrentToken(TokenType.OPERATOR, "*") || isCurrentToken(TokenType.OPERATOR, "/")) {
-      if (currentToken.getValue().equals("*"))
-        mult = true;
-      else if (currentToken.getValue().equals("/"))
-        mult = false;
+    while (isCurrentToken(Lexeme.TIMES) || isCurrentToken(Lexeme.DIVIDE)) {
+      mult = isCurrentToken(Lexeme.TIMES);
       readNT();
       procAF();
       if (mult)
@@ -165,7 +155,7 @@ public class Parser {
 
   private void procAF() {
     procAP();
-    if (isCurrentToken(TokenType.OPERATOR, "**")) {
+    if (isCurrentToken(Lexeme.POWER)) {
       readNT();
       procAF();
       buildNAryASTNode(ASTNodeType.EXP, 2);
@@ -174,7 +164,7 @@ public class Parser {
 
   private void procAP() {
     procR();
-    while (isCurrentToken(TokenType.OPERATOR, "@")) {
+    while (isCurrentToken(Lexeme.AT)) {
       readNT();
       if (!isCurrentTokenType(TokenType.IDENTIFIER))
         throw new ParseException("AP: expected Identifier");
@@ -187,7 +177,7 @@ public class Parser {
   // Boolean Expressions
   private void procB() {
     procBT();
-    while (isCurrentToken(TokenType.RESERVED, "or")) {
+    while (isCurrentToken(Lexeme.OR)) {
       readNT();
       procBT();
       buildNAryASTNode(ASTNodeType.OR, 2);
@@ -196,7 +186,7 @@ public class Parser {
 
   private void procBT() {
     procBS();
-    while (isCurrentToken(TokenType.OPERATOR, "&")) {
+    while (isCurrentToken(Lexeme.AMPERSAND)) {
       readNT();
       procBS();
       buildNAryASTNode(ASTNodeType.AND, 2);
@@ -204,7 +194,7 @@ public class Parser {
   }
 
   private void procBS() {
-    if (isCurrentToken(TokenType.RESERVED, "not")) {
+    if (isCurrentToken(Lexeme.NOT)) {
       readNT();
       procBP();
       buildNAryASTNode(ASTNodeType.NOT, 1);
@@ -214,27 +204,27 @@ public class Parser {
 
   private void procBP() {
     procA();
-    if (isCurrentToken(TokenType.RESERVED, "gr") || isCurrentToken(TokenType.OPERATOR, ">")) {
+    if (isCurrentToken(Lexeme.GR) || isCurrentToken(Lexeme.GREATER)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.GR, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "ge") || isCurrentToken(TokenType.OPERATOR, ">=")) {
+    } else if (isCurrentToken(Lexeme.GE) || isCurrentToken(Lexeme.GREATER_EQUAL)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.GE, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "ls") || isCurrentToken(TokenType.OPERATOR, "<")) {
+    } else if (isCurrentToken(Lexeme.LS) || isCurrentToken(Lexeme.LESS)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.LS, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "le") || isCurrentToken(TokenType.OPERATOR, "<=")) {
+    } else if (isCurrentToken(Lexeme.LE) || isCurrentToken(Lexeme.LESS_EQUAL)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.LE, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "eq")) {
+    } else if (isCurrentToken(Lexeme.EQ)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.EQ, 2);
-    } else if (isCurrentToken(TokenType.RESERVED, "ne")) {
+    } else if (isCurrentToken(Lexeme.NE)) {
       readNT();
       procA();
       buildNAryASTNode(ASTNodeType.NE, 2);
@@ -245,7 +235,7 @@ public class Parser {
   private void procT() {
     procTA();
     int treesToPop = 0;
-    while (isCurrentToken(TokenType.OPERATOR, ",")) {
+    while (isCurrentToken(Lexeme.COMMA)) {
       readNT();
       procTA();
       treesToPop++;
@@ -256,7 +246,7 @@ public class Parser {
 
   private void procTA() {
     procTC();
-    while (isCurrentToken(TokenType.RESERVED, "aug")) {
+    while (isCurrentToken(Lexeme.AUG)) {
       readNT();
       procTC();
       buildNAryASTNode(ASTNodeType.AUG, 2);
@@ -265,10 +255,10 @@ public class Parser {
 
   private void procTC() {
     procB();
-    if (isCurrentToken(TokenType.OPERATOR, "->")) {
+    if (isCurrentToken(Lexeme.ARROW)) {
       readNT();
       procTC();
-      if (!isCurrentToken(TokenType.OPERATOR, "|"))
+      if (!isCurrentToken(Lexeme.BAR))
         throw new ParseException("TC: '|' expected");
       readNT();
       procTC();
@@ -283,10 +273,10 @@ public class Parser {
     while (isCurrentTokenType(TokenType.INTEGER) ||
         isCurrentTokenType(TokenType.STRING) ||
         isCurrentTokenType(TokenType.IDENTIFIER) ||
-        isCurrentToken(TokenType.RESERVED, "true") ||
-        isCurrentToken(TokenType.RESERVED, "false") ||
-        isCurrentToken(TokenType.RESERVED, "nil") ||
-        isCurrentToken(TokenType.RESERVED, "dummy") ||
+        isCurrentToken(Lexeme.TRUE) ||
+        isCurrentToken(Lexeme.FALSE) ||
+        isCurrentToken(Lexeme.NIL) ||
+        isCurrentToken(Lexeme.DUMMY) ||
         isCurrentTokenType(TokenType.L_PAREN)) {
       procRN();
       buildNAryASTNode(ASTNodeType.GAMMA, 2);
@@ -298,18 +288,18 @@ public class Parser {
     if (isCurrentTokenType(TokenType.IDENTIFIER) ||
         isCurrentTokenType(TokenType.INTEGER) ||
         isCurrentTokenType(TokenType.STRING)) {
-    } else if (isCurrentToken(TokenType.RESERVED, "true")) {
+    } else if (isCurrentToken(Lexeme.TRUE)) {
       createTerminalASTNode(ASTNodeType.TRUE, "true");
-    } else if (isCurrentToken(TokenType.RESERVED, "false")) {
+    } else if (isCurrentToken(Lexeme.FALSE)) {
       createTerminalASTNode(ASTNodeType.FALSE, "false");
-    } else if (isCurrentToken(TokenType.RESERVED, "nil")) {
+    } else if (isCurrentToken(Lexeme.NIL)) {
       createTerminalASTNode(ASTNodeType.NIL, "nil");
     } else if (isCurrentTokenType(TokenType.L_PAREN)) {
       readNT();
       procE();
       if (!isCurrentTokenType(TokenType.R_PAREN))
         throw new ParseException("RN: ')' expected");
-    } else if (isCurrentToken(TokenType.RESERVED, "dummy")) {
+    } else if (isCurrentToken(Lexeme.DUMMY)) {
       createTerminalASTNode(ASTNodeType.DUMMY, "dummy");
     }
   }
@@ -338,7 +328,7 @@ public class Parser {
     else {
       readNT();
       int treesToPop = 0;
-      while (isCurrentToken(TokenType.OPERATOR, ",")) {
+      while (isCurrentToken(Lexeme.COMMA)) {
         readNT();
         if (!isCurrentTokenType(TokenType.IDENTIFIER))
           throw new ParseException("VL: Identifier expected");
@@ -353,7 +343,7 @@ public class Parser {
   // Definitions
   private void procD() {
     procDA();
-    if (isCurrentToken(TokenType.RESERVED, "within")) {
+    if (isCurrentToken(Lexeme.WITHIN)) {
       readNT();
       procD();
       buildNAryASTNode(ASTNodeType.WITHIN, 2);
@@ -363,7 +353,7 @@ public class Parser {
   private void procDA() {
     procDR();
     int treesToPop = 0;
-    while (isCurrentToken(TokenType.RESERVED, "and")) {
+    while (isCurrentToken(Lexeme.AND)) {
       readNT();
       procDR();
       treesToPop++;
@@ -373,7 +363,7 @@ public class Parser {
   }
 
   private void procDR() {
-    if (isCurrentToken(TokenType.RESERVED, "rec")) {
+    if (isCurrentToken(Lexeme.REC)) {
       readNT();
       procDB();
       buildNAryASTNode(ASTNodeType.REC, 1);
@@ -391,17 +381,17 @@ public class Parser {
       readNT();
     } else if (isCurrentTokenType(TokenType.IDENTIFIER)) {
       readNT();
-      if (isCurrentToken(TokenType.OPERATOR, ",")) {
+      if (isCurrentToken(Lexeme.COMMA)) {
         readNT();
         procVL();
-        if (!isCurrentToken(TokenType.OPERATOR, "="))
+        if (!isCurrentToken(Lexeme.EQUAL))
           throw new ParseException("DB: = expected.");
         buildNAryASTNode(ASTNodeType.COMMA, 2);
         readNT();
         procE();
         buildNAryASTNode(ASTNodeType.EQUAL, 2);
       } else {
-        if (isCurrentToken(TokenType.OPERATOR, "=")) {
+        if (isCurrentToken(Lexeme.EQUAL)) {
           readNT();
           procE();
           buildNAryASTNode(ASTNodeType.EQUAL, 2);
@@ -416,7 +406,7 @@ public class Parser {
           if (treesToPop == 0)
             throw new ParseException("E: at least one 'Vb' expected");
 
-          if (!isCurrentToken(TokenType.OPERATOR, "="))
+          if (!isCurrentToken(Lexeme.EQUAL))
             throw new ParseException("DB: = expected.");
 
           readNT();
@@ -0,0 +1,250 @@
+package src;
+
+// Semantics of the RPAL operators and built-in functions on runtime values.
+// Used by the execution engines built on top of the deltas; the CSE machine keeps
+// its own implementation of most of them so that it can serve as the reference for
+// them, it shares the arithmetic that is easy to get subtly wrong, such as power.
+final class Primitives {
+
+  private Primitives() {
+  }
+
+  // integer exponentiation by squaring, negative exponents behave like a truncated Math.pow
+  static long power(long base, long exponent) {
+    if (exponent < 0)
+      return (long) Math.pow(base, exponent);
+    long result = 1;
+    while (exponent > 0) {
+      if ((exponent & 1) == 1)
+        result *= base;
+      base *= base;
+      exponent >>= 1;
+    }
+    return result;
+  }
+
+  // processing for eq, ne: truth values, strings and integers can be compared
+  static boolean equal(Value rand1, Value rand2) {
+    switch (rand1.getType()) {
+      case TRUE:
+      case FALSE:
+        return rand1 == rand2;
+      case STRING:
+        if (rand2 instanceof StringValue)
+          return ((StringValue) rand1).contentEquals((StringValue) rand2);
+        return rand1.toString().equals(rand2.toString());
+      case INTEGER:
+        return ((IntegerValue) rand1).getInt() == ((IntegerValue) rand2).getInt();
+      default:
+        throw new RuntimeException("Cannot compare " + rand1.getType() + " values");
+    }
+  }
+
+  // processing for aug
+  static Tuple aug(Value rand1, Value rand2) {
+    return ((Tuple) rand1).append(rand2);
+  }
+
+  // processing for conc function
+  static StringValue conc(Value rand1, Value rand2) {
+    return StringValue.concat(StringValue.valueOf(rand1), StringValue.valueOf(rand2));
+  }
+
+  // CSE rule 10
+  static Value select(Tuple tuple, Value rand) {
+    return tuple.get((int) ((IntegerValue) rand).getInt());
+  }
+
+  // Applies a built-in function, Conc gives a Builtin waiting for its second argument
+  static Value applyBuiltin(Builtin rator, Value rand) {
+    if (rator.getIntrinsic() == Intrinsic.CONC) {
+      if (rator.getFirstArgument() == null)
+        return new Builtin(rator.getName(), rand);
+      return conc(rator.getFirstArgument(), rand);
+    }
+    return applyIntrinsic(rator.getIntrinsic(), rand);
+  }
+
+  // Applies a built-in function taking a single argument
+  static Value applyIntrinsic(Intrinsic intrinsic, Value rand) {
+    switch (intrinsic) {
+      case ISSTRING:
+        return TruthValue.of(rand.getType() == ValueType.STRING);
+      case ISINTEGER:
+        return TruthValue.of(rand.getType() == ValueType.INTEGER);
+      case ISFUNCTION:
+        return TruthValue.of(isFunction(rand));
+      case ISTRUTHVALUE:
+        return TruthValue.of(rand instanceof TruthValue);
+      case NULL:
+        return TruthValue.of(tupleSize(rand) == 0);
+      case ISDUMMY:
+        return TruthValue.of(rand.getType() == ValueType.DUMMY);
+      case ISTUPLE:
+        return TruthValue.of(rand.getType() == ValueType.TUPLE);
+      case STEM:
+        return stem(rand);
+      case STERN:
+        return stern(rand);
+      case PRINT:
+        print(rand);
+        return DummyValue.DUMMY;
+      case ITOS:
+        return new StringValue(rand.toString());
+      case ORDER:
+        return IntegerValue.of(tupleSize(rand));
+      case NEG:
+        return IntegerValue.of(-((IntegerValue) rand).getInt());
+      case LENGTH:
+        return IntegerValue.of(StringValue.valueOf(rand).length());
+      case SUBSTRING:
+        return substring((Tuple) rand);
+      case INDEXOF:
+        return indexOf((Tuple) rand);
+      default:
+        throw new RuntimeException(intrinsic + " takes " + intrinsic.getArity() + " arguments");
+    }
+  }
+
+  // Whether the value can be applied: closures, eta closures, Y* and the built-ins,
+  // partially applied ones included
+  static boolean isFunction(Value value) {
+    switch (value.getType()) {
+      case CLOSURE:
+      case ETA:
+      case YSTAR:
+      case BUILTIN:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static boolean isPrint(String value) {
+    return Intrinsic.forName(value) == Intrinsic.PRINT;
+  }
+
+  static boolean isReservedIdentifier(String value) {
+    return Intrinsic.forName(value) != null;
+  }
+
+  private static StringValue stem(Value rand) {
+    StringValue value = StringValue.valueOf(rand);
+    if (value.length() == 0)
+      return StringValue.EMPTY;
+    return value.substring(0, 1);
+  }
+
+  private static StringValue stern(Value rand) {
+    StringValue value = StringValue.valueOf(rand);
+    if (value.length() <= 1)
+      return StringValue.EMPTY;
+    return value.substring(1, value.length());
+  }
+
+  // Substring (s, i, j): characters i to j of s, counting from 1 like tuple selection
+  // and clamped to the string, empty when j is before i
+  static StringValue substring(Tuple arguments) {
+    StringValue value = StringValue.valueOf(arguments.get(1));
+    long begin = Math.max(1, ((IntegerValue) arguments.get(2)).getInt());
+    long end = Math.min(value.length(), ((IntegerValue) arguments.get(3)).getInt());
+    if (end < begin)
+      return StringValue.EMPTY;
+    return value.substring((int) begin - 1, (int) end);
+  }
+
+  // IndexOf (s, t): position of the first occurrence of t in s counting from 1, 0 if none
+  static IntegerValue indexOf(Tuple arguments) {
+    StringValue value = StringValue.valueOf(arguments.get(1));
+    return IntegerValue.of(value.indexOf(StringValue.valueOf(arguments.get(2))) + 1);
+  }
+
+  private static int tupleSize(Value value) {
+    if (value.getType() == ValueType.TUPLE)
+      return ((Tuple) value).size();
+    return 0;
+  }
+
+  private static void print(Value rand) {
+    String evaluationResult = rand.toString();
+    evaluationResult = evaluationResult.replace("\\t", "\t");
+    evaluationResult = evaluationResult.replace("\\n", "\n");
+    System.out.print(evaluationResult);
+  }
+}
+
+// The built-in functions, resolved once from their names when the deltas are created.
+// The arity is the number of arguments a call needs before the function runs.
+enum Intrinsic {
+  ISINTEGER(1),
+  ISSTRING(1),
+  ISTUPLE(1),
+  ISDUMMY(1),
+  ISTRUTHVALUE(1),
+  ISFUNCTION(1),
+  ITOS(1),
+  ORDER(1),
+  CONC(2),
+  STERN(1),
+  STEM(1),
+  NULL(1),
+  PRINT(1),
+  NEG(1),
+  LENGTH(1),
+  SUBSTRING(1), // takes a tuple
+  INDEXOF(1); // takes a tuple
+
+  private final int arity;
+
+  private Intrinsic(int arity) {
+    this.arity = arity;
+  }
+
+  public int getArity() {
+    return arity;
+  }
+
+  // The built-in function of that name, null for the other names
+  static Intrinsic forName(String name) {
+    switch (name) {
+      case "Isinteger":
+        return ISINTEGER;
+      case "Isstring":
+        return ISSTRING;
+      case "Istuple":
+        return ISTUPLE;
+      case "Isdummy":
+        return ISDUMMY;
+      case "Istruthvalue":
+        return ISTRUTHVALUE;
+      case "Isfunction":
+        return ISFUNCTION;
+      case "ItoS":
+        return ITOS;
+      case "Order":
+        return ORDER;
+      case "Conc":
+      case "conc":
+        return CONC;
+      case "Stern":
+        return STERN;
+      case "Stem":
+        return STEM;
+      case "Null":
+        return NULL;
+      case "Print":
+      case "print":
+        return PRINT;
+      case "neg":
+        return NEG;
+      case "Length":
+        return LENGTH;
+      case "Substring":
+        return SUBSTRING;
+      case "IndexOf":
+        return INDEXOF;
+      default:
+        return null;
+    }
+  }
+}
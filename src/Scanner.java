@@ -5,26 +5,31 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.util.Arrays;
-import java.util.List;
 import java.util.regex.Pattern;
 
 // Combination of lexer and screener
 public class Scanner {
   private BufferedReader buffer; // Buffer to read the input file
+  private MappedScanner mapped;  // Scanner of the mapped file in the -mmap mode, null otherwise
   private String extraCharRead;  // Stores an extra character read for the next token
-  private final List<String> reservedIdentifiers = Arrays
-      .asList(new String[] { "let", "in", "within", "fn", "where", "aug", "or",
-          "not", "gr", "ge", "ls", "le", "eq", "ne", "true",
-          "false", "nil", "dummy", "rec", "and" }); // List of reserved keywords in RPAL
 
   // Constructor to initialize the buffer with the input file
   public Scanner(String inputFile) throws IOException {
     buffer = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
   }
 
+  // Constructor mapping the input file in memory when mapped is set, see MappedScanner
+  public Scanner(String inputFile, boolean mapped) throws IOException {
+    if (mapped)
+      this.mapped = new MappedScanner(inputFile);
+    else
+      buffer = new BufferedReader(new InputStreamReader(new FileInputStream(new File(inputFile))));
+  }
+
   // Reads the next token from the input
   public Token readNextToken() {
+    if (mapped != null)
+      return mapped.readNextToken();
     Token nextToken = null;
     String nextChar;
 
@@ -93,8 +98,11 @@ public class Scanner {
     }
 
     String value = sBuilder.toString();
-    if (reservedIdentifiers.contains(value))
+    Lexeme lexeme = Lexeme.forText(value);
+    if (lexeme != null && lexeme.getType() == TokenType.RESERVED) {
       identifierToken.setType(TokenType.RESERVED);
+      identifierToken.setLexeme(lexeme);
+    }
 
     identifierToken.setValue(value);
     return identifierToken;
@@ -144,6 +152,7 @@ public class Scanner {
     }
 
     opSymbolToken.setValue(sBuilder.toString());
+    opSymbolToken.setLexeme(Lexeme.forText(opSymbolToken.getValue()));
     return opSymbolToken;
   }
 
@@ -0,0 +1,296 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Simplification of the standardized tree before the deltas are created.
+// Operators applied to literals are folded, as are the string built-ins applied to
+// literals while no binding hides them; algebraic identities drop their neutral
+// operand, x ** 2 on a variable becomes x * x and conditionals on a literal keep only
+// the branch taken. An identity only applies when the other operand is known to have
+// the type the operator checks, so 'a' * 1 still stops on a type error. No operand
+// is dropped, x * 0 and false & e are kept: the operand could print, loop or fail.
+class Simplifier {
+  private final List<String> boundNames = new ArrayList<String>(); // Names bound by the enclosing lambdas
+
+  public void simplify(ASTNode node) {
+    if (node.getType() == ASTNodeType.LAMBDA) {
+      int numBound = bind(node.getChild());
+      simplify(node.getChild().getSibling());
+      for (int i = 0; i < numBound; i++)
+        boundNames.remove(boundNames.size() - 1);
+      return;
+    }
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      simplify(child);
+
+    switch (node.getType()) {
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+        simplifyArithmetic(node);
+        break;
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+        if (isInteger(node.getChild()) && isInteger(node.getChild().getSibling()))
+          foldComparison(node);
+        break;
+      case EQ:
+      case NE:
+        simplifyEquality(node);
+        break;
+      case OR:
+      case AND:
+        simplifyLogical(node);
+        break;
+      case NOT:
+        if (isTruthValue(node.getChild()))
+          setTruthValue(node, node.getChild().getType() == ASTNodeType.FALSE);
+        break;
+      case NEG:
+        if (isInteger(node.getChild()))
+          setLiteral(node, ASTNodeType.INTEGER, Long.toString(-integerOf(node.getChild())));
+        break;
+      case CONDITIONAL:
+        ASTNode condition = node.getChild();
+        if (condition.getType() == ASTNodeType.TRUE)
+          Trees.replace(node, condition.getSibling());
+        else if (condition.getType() == ASTNodeType.FALSE)
+          Trees.replace(node, condition.getSibling().getSibling());
+        break;
+      case GAMMA:
+        simplifyApplication(node);
+        break;
+      default:
+        break;
+    }
+  }
+
+  private int bind(ASTNode parameter) {
+    if (parameter.getType() == ASTNodeType.IDENTIFIER) {
+      boundNames.add(parameter.getValue());
+      return 1;
+    }
+    int numBound = 0;
+    for (ASTNode name = parameter.getChild(); name != null; name = name.getSibling(), numBound++)
+      boundNames.add(name.getValue());
+    return numBound;
+  }
+
+  private void simplifyArithmetic(ASTNode node) {
+    ASTNode left = node.getChild();
+    ASTNode right = left.getSibling();
+    if (isInteger(left) && isInteger(right)) {
+      long rand1 = integerOf(left);
+      long rand2 = integerOf(right);
+      switch (node.getType()) {
+        case PLUS:
+          setInteger(node, rand1 + rand2);
+          return;
+        case MINUS:
+          setInteger(node, rand1 - rand2);
+          return;
+        case MULT:
+          setInteger(node, rand1 * rand2);
+          return;
+        case DIV:
+          if (rand2 != 0) // division by zero is left to fail at runtime
+            setInteger(node, rand1 / rand2);
+          return;
+        default:
+          setInteger(node, Primitives.power(rand1, rand2));
+          return;
+      }
+    }
+
+    switch (node.getType()) {
+      case PLUS:
+        if (isInteger(left, 0) && isIntegerTyped(right))
+          Trees.replace(node, right);
+        else if (isInteger(right, 0) && isIntegerTyped(left))
+          Trees.replace(node, left);
+        break;
+      case MINUS:
+        if (isInteger(right, 0) && isIntegerTyped(left))
+          Trees.replace(node, left);
+        break;
+      case MULT:
+        if (isInteger(left, 1) && isIntegerTyped(right))
+          Trees.replace(node, right);
+        else if (isInteger(right, 1) && isIntegerTyped(left))
+          Trees.replace(node, left);
+        break;
+      case DIV:
+        if (isInteger(right, 1) && isIntegerTyped(left))
+          Trees.replace(node, left);
+        break;
+      case EXP:
+        if (isInteger(right, 1) && isIntegerTyped(left))
+          Trees.replace(node, left);
+        else if (isInteger(right, 2) && left.getType() == ASTNodeType.IDENTIFIER) {
+          // a multiplication instead of the exponentiation loop, the variable is read twice
+          ASTNode copy = new ASTNode();
+          copy.setType(ASTNodeType.IDENTIFIER);
+          copy.setValue(left.getValue());
+          left.setSibling(copy);
+          node.setType(ASTNodeType.MULT);
+        }
+        break;
+      default:
+        break;
+    }
+  }
+
+  private void foldComparison(ASTNode node) {
+    long rand1 = integerOf(node.getChild());
+    long rand2 = integerOf(node.getChild().getSibling());
+    switch (node.getType()) {
+      case LS:
+        setTruthValue(node, rand1 < rand2);
+        break;
+      case LE:
+        setTruthValue(node, rand1 <= rand2);
+        break;
+      case GR:
+        setTruthValue(node, rand1 > rand2);
+        break;
+      default:
+        setTruthValue(node, rand1 >= rand2);
+        break;
+    }
+  }
+
+  private void simplifyEquality(ASTNode node) {
+    ASTNode left = node.getChild();
+    ASTNode right = left.getSibling();
+    boolean equal;
+    if (isInteger(left) && isInteger(right))
+      equal = integerOf(left) == integerOf(right);
+    else if (isTruthValue(left) && isTruthValue(right))
+      equal = left.getType() == right.getType();
+    else if (left.getType() == ASTNodeType.STRING && right.getType() == ASTNodeType.STRING)
+      equal = left.getValue().equals(right.getValue());
+    else
+      return;
+    setTruthValue(node, equal == (node.getType() == ASTNodeType.EQ));
+  }
+
+  // true & e and false or e are e when e is known to be a truth value
+  private void simplifyLogical(ASTNode node) {
+    ASTNode left = node.getChild();
+    ASTNode right = left.getSibling();
+    ASTNodeType neutral = node.getType() == ASTNodeType.AND ? ASTNodeType.TRUE : ASTNodeType.FALSE;
+    if (isTruthValue(left) && isTruthValue(right))
+      setTruthValue(node, node.getType() == ASTNodeType.AND
+          ? left.getType() == ASTNodeType.TRUE && right.getType() == ASTNodeType.TRUE
+          : left.getType() == ASTNodeType.TRUE || right.getType() == ASTNodeType.TRUE);
+    else if (left.getType() == neutral && isTruthValueTyped(right))
+      Trees.replace(node, right);
+    else if (right.getType() == neutral && isTruthValueTyped(left))
+      Trees.replace(node, left);
+  }
+
+  // Built-in functions applied to literals: Conc, Stem, Stern, Length and ItoS
+  private void simplifyApplication(ASTNode node) {
+    ASTNode rator = node.getChild();
+    ASTNode rand = rator.getSibling();
+    if (rator.getType() == ASTNodeType.GAMMA && rand.getType() == ASTNodeType.STRING) {
+      ASTNode function = rator.getChild();
+      ASTNode firstArgument = function.getSibling();
+      if (isBuiltin(function, "Conc") || isBuiltin(function, "conc"))
+        if (firstArgument.getType() == ASTNodeType.STRING)
+          setLiteral(node, ASTNodeType.STRING, firstArgument.getValue() + rand.getValue());
+      return;
+    }
+
+    if (rand.getType() == ASTNodeType.STRING) {
+      String value = rand.getValue();
+      if (isBuiltin(rator, "Stem"))
+        setLiteral(node, ASTNodeType.STRING, value.isEmpty() ? "" : value.substring(0, 1));
+      else if (isBuiltin(rator, "Stern"))
+        setLiteral(node, ASTNodeType.STRING, value.length() <= 1 ? "" : value.substring(1));
+      else if (isBuiltin(rator, "Length"))
+        setInteger(node, value.length());
+    } else if (isInteger(rand) && isBuiltin(rator, "ItoS"))
+      setLiteral(node, ASTNodeType.STRING, Long.toString(integerOf(rand)));
+  }
+
+  private boolean isBuiltin(ASTNode node, String name) {
+    return node.getType() == ASTNodeType.IDENTIFIER && node.getValue().equals(name) && !boundNames.contains(name);
+  }
+
+  // Whether the expression gives an integer whenever it gives a value: a literal or
+  // an arithmetic operation, which checks its operands
+  private static boolean isIntegerTyped(ASTNode node) {
+    switch (node.getType()) {
+      case INTEGER:
+      case PLUS:
+      case MINUS:
+      case MULT:
+      case DIV:
+      case EXP:
+      case NEG:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  // Whether the expression gives a truth value whenever it gives a value: a literal,
+  // a comparison or a logical operation
+  private static boolean isTruthValueTyped(ASTNode node) {
+    switch (node.getType()) {
+      case TRUE:
+      case FALSE:
+      case LS:
+      case LE:
+      case GR:
+      case GE:
+      case EQ:
+      case NE:
+      case NOT:
+      case OR:
+      case AND:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean isInteger(ASTNode node) {
+    return node.getType() == ASTNodeType.INTEGER;
+  }
+
+  private static boolean isInteger(ASTNode node, long value) {
+    return isInteger(node) && integerOf(node) == value;
+  }
+
+  private static long integerOf(ASTNode node) {
+    return Long.parseLong(node.getValue());
+  }
+
+  private static boolean isTruthValue(ASTNode node) {
+    return node.getType() == ASTNodeType.TRUE || node.getType() == ASTNodeType.FALSE;
+  }
+
+  private static void setInteger(ASTNode node, long value) {
+    setLiteral(node, ASTNodeType.INTEGER, Long.toString(value));
+  }
+
+  private static void setTruthValue(ASTNode node, boolean value) {
+    if (value)
+      setLiteral(node, ASTNodeType.TRUE, "true");
+    else
+      setLiteral(node, ASTNodeType.FALSE, "false");
+  }
+
+  private static void setLiteral(ASTNode node, ASTNodeType type, String value) {
+    node.setType(type);
+    node.setValue(value);
+    node.setChild(null);
+  }
+}
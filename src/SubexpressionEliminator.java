@@ -0,0 +1,251 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Common subexpression elimination on the standardized tree.
+// Within the body of a delta, identical pure expressions that call a function are
+// evaluated once: the closest expression enclosing all of them, B, becomes
+// gamma(lambda t. B', E) where B' reads the fresh variable t in place of each copy of E.
+// The variables of E mean the same thing everywhere in the body, only lambdas bind
+// names and their bodies are other deltas. E is shared only when some evaluation of B
+// would compute it twice and every evaluation of B computes it at least once, so
+// nothing is computed that was not before, the branches of a conditional counting
+// apart. E is pure but now runs before all of B, so it is only shared when B cannot
+// print before it reaches its first copy of E. A program failing or looping in B before
+// that copy can still stop on the failure or the loop of E instead.
+class SubexpressionEliminator {
+  private static final String PREFIX = "_cse"; // Identifiers cannot start with an underscore
+
+  // What the evaluation of an expression meets first, see firstEvent
+  private static final int NOTHING = 0;
+  private static final int MARKED = 1;
+  private static final int EFFECT = 2;
+
+  private final EffectAnalysis effects;
+  private int numNames = 0;
+
+  public SubexpressionEliminator(ASTNode root) {
+    effects = new EffectAnalysis(root);
+  }
+
+  // Eliminates the common subexpressions of the delta body and of the deltas nested in it
+  public void eliminate(ASTNode body) {
+    boolean changed;
+    do {
+      changed = eliminateOne(body);
+    } while (changed);
+    for (ASTNode lambda : nestedLambdas(body, new ArrayList<ASTNode>()))
+      eliminate(lambda.getChild().getSibling());
+  }
+
+  // Shares the largest expression worth sharing, gives whether there was one
+  private boolean eliminateOne(ASTNode body) {
+    Map<String, List<ASTNode>> copies = new LinkedHashMap<String, List<ASTNode>>();
+    collect(body, copies);
+
+    List<ASTNode> best = null;
+    ASTNode bestScope = null;
+    int bestSize = 0;
+    for (List<ASTNode> occurrences : copies.values()) {
+      if (occurrences.size() < 2)
+        continue;
+      ASTNode expression = occurrences.get(0);
+      int size = Trees.size(expression);
+      if (size <= bestSize || !isCall(expression) || effects.effectOf(expression) != Effect.PURE)
+        continue;
+      Map<ASTNode, Boolean> marked = new IdentityHashMap<ASTNode, Boolean>();
+      for (ASTNode occurrence : occurrences)
+        marked.put(occurrence, Boolean.TRUE);
+      ASTNode scope = enclosing(body, marked);
+      int[] evaluations = countEvaluations(scope, marked);
+      if (evaluations[0] >= 1 && evaluations[1] >= 2 && firstEvent(scope, marked) == MARKED) {
+        best = occurrences;
+        bestScope = scope;
+        bestSize = size;
+      }
+    }
+    if (best == null)
+      return false;
+    share(bestScope, best);
+    return true;
+  }
+
+  // scope becomes gamma(lambda t. scope', E) where the occurrences of E in scope' read t
+  private void share(ASTNode scope, List<ASTNode> occurrences) {
+    String name = PREFIX + numNames++;
+    ASTNode value = new ASTNode();
+    value.setType(occurrences.get(0).getType());
+    value.setValue(occurrences.get(0).getValue());
+    value.setChild(occurrences.get(0).getChild());
+    for (ASTNode occurrence : occurrences)
+      setIdentifier(occurrence, name);
+
+    ASTNode content = new ASTNode();
+    content.setType(scope.getType());
+    content.setValue(scope.getValue());
+    content.setChild(scope.getChild());
+    ASTNode parameter = new ASTNode();
+    setIdentifier(parameter, name);
+    parameter.setSibling(content);
+    ASTNode lambda = new ASTNode();
+    lambda.setType(ASTNodeType.LAMBDA);
+    lambda.setChild(parameter);
+    lambda.setSibling(value);
+    scope.setType(ASTNodeType.GAMMA);
+    scope.setValue(null);
+    scope.setChild(lambda);
+  }
+
+  // Groups the expressions of the delta body by their text, gives the text of the node
+  private String collect(ASTNode node, Map<String, List<ASTNode>> copies) {
+    StringBuilder key = new StringBuilder("(").append(node.getType().name());
+    if (node.getValue() != null)
+      key.append(' ').append(node.getValue().length()).append(':').append(node.getValue());
+    if (node.getType() == ASTNodeType.LAMBDA) {
+      // the lambda is part of the expressions enclosing it, its body is another delta
+      key.append(' ').append(text(node.getChild())).append(' ').append(text(node.getChild().getSibling()));
+    } else
+      for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+        key.append(' ').append(collect(child, copies));
+    String text = key.append(')').toString();
+    List<ASTNode> occurrences = copies.get(text);
+    if (occurrences == null) {
+      occurrences = new ArrayList<ASTNode>();
+      copies.put(text, occurrences);
+    }
+    occurrences.add(node);
+    return text;
+  }
+
+  private static String text(ASTNode node) {
+    StringBuilder text = new StringBuilder("(").append(node.getType().name());
+    if (node.getValue() != null)
+      text.append(' ').append(node.getValue().length()).append(':').append(node.getValue());
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      text.append(' ').append(text(child));
+    return text.append(')').toString();
+  }
+
+  // Whether evaluating the expression calls a function other than a built-in, a
+  // binding costs more than the built-ins and operators it would save
+  private static boolean isCall(ASTNode node) {
+    if (node.getType() == ASTNodeType.LAMBDA)
+      return false;
+    if (node.getType() == ASTNodeType.GAMMA) {
+      ASTNode rator = node.getChild();
+      if (rator.getType() != ASTNodeType.IDENTIFIER || !Primitives.isReservedIdentifier(rator.getValue()))
+        if (rator.getType() != ASTNodeType.GAMMA || !isBuiltinApplication(rator))
+          return true;
+    }
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      if (isCall(child))
+        return true;
+    return false;
+  }
+
+  // A curried built-in such as Conc applied to its first argument
+  private static boolean isBuiltinApplication(ASTNode gamma) {
+    ASTNode rator = gamma.getChild();
+    return rator.getType() == ASTNodeType.IDENTIFIER && Primitives.isReservedIdentifier(rator.getValue());
+  }
+
+  // Innermost expression of the delta body holding all the marked nodes
+  private static ASTNode enclosing(ASTNode body, Map<ASTNode, Boolean> marked) {
+    ASTNode scope = body;
+    while (true) {
+      ASTNode next = null;
+      for (ASTNode child = scope.getChild(); child != null; child = child.getSibling())
+        if (countMarked(child, marked) == marked.size())
+          next = child;
+      if (next == null)
+        return scope;
+      scope = next;
+    }
+  }
+
+  private static int countMarked(ASTNode node, Map<ASTNode, Boolean> marked) {
+    if (marked.containsKey(node))
+      return 1;
+    if (node.getType() == ASTNodeType.LAMBDA)
+      return 0;
+    int count = 0;
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      count += countMarked(child, marked);
+    return count;
+  }
+
+  // Least and largest number of marked nodes an evaluation of the expression evaluates
+  private static int[] countEvaluations(ASTNode node, Map<ASTNode, Boolean> marked) {
+    if (marked.containsKey(node))
+      return new int[] {1, 1};
+    if (node.getType() == ASTNodeType.LAMBDA)
+      return new int[] {0, 0};
+    if (node.getType() == ASTNodeType.CONDITIONAL) {
+      ASTNode condition = node.getChild();
+      int[] counts = countEvaluations(condition, marked);
+      int[] thenCounts = countEvaluations(condition.getSibling(), marked);
+      int[] elseCounts = countEvaluations(condition.getSibling().getSibling(), marked);
+      return new int[] {counts[0] + Math.min(thenCounts[0], elseCounts[0]),
+          counts[1] + Math.max(thenCounts[1], elseCounts[1])};
+    }
+    int[] counts = new int[2];
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling()) {
+      int[] childCounts = countEvaluations(child, marked);
+      counts[0] += childCounts[0];
+      counts[1] += childCounts[1];
+    }
+    return counts;
+  }
+
+  // Whether evaluating the node reaches a marked node (MARKED) or something that may
+  // print (EFFECT) first, NOTHING when it does neither. A conditional reaches the marked
+  // nodes only when both of its branches do.
+  private int firstEvent(ASTNode node, Map<ASTNode, Boolean> marked) {
+    if (marked.containsKey(node))
+      return MARKED;
+    if (node.getType() == ASTNodeType.LAMBDA)
+      return NOTHING;
+    if (node.getType() == ASTNodeType.CONDITIONAL) {
+      ASTNode condition = node.getChild();
+      int event = firstEvent(condition, marked);
+      if (event != NOTHING)
+        return event;
+      int thenEvent = firstEvent(condition.getSibling(), marked);
+      int elseEvent = firstEvent(condition.getSibling().getSibling(), marked);
+      if (thenEvent == EFFECT || elseEvent == EFFECT)
+        return EFFECT;
+      return thenEvent == MARKED && elseEvent == MARKED ? MARKED : NOTHING;
+    }
+    // the deltas evaluate the children from the last one
+    List<ASTNode> children = new ArrayList<ASTNode>();
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      children.add(child);
+    for (int i = children.size() - 1; i >= 0; i--) {
+      int event = firstEvent(children.get(i), marked);
+      if (event != NOTHING)
+        return event;
+    }
+    return effects.effectOf(node) == Effect.PURE ? NOTHING : EFFECT;
+  }
+
+  // Lambdas of the delta body, their bodies are the nested deltas
+  private static List<ASTNode> nestedLambdas(ASTNode node, List<ASTNode> lambdas) {
+    if (node.getType() == ASTNodeType.LAMBDA) {
+      lambdas.add(node);
+      return lambdas;
+    }
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      nestedLambdas(child, lambdas);
+    return lambdas;
+  }
+
+  private static void setIdentifier(ASTNode node, String name) {
+    node.setType(ASTNodeType.IDENTIFIER);
+    node.setValue(name);
+    node.setChild(null);
+  }
+}
@@ -1,17 +1,33 @@
 package src;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 // Token class represents tokens passed from the scanner to the parser
 public class Token {
   private TokenType type; // Type of the token
   private String value;   // Value of the token
+  private Lexeme lexeme;  // Reserved word or operator the parser knows, null otherwise
+  private ByteBuffer source; // Buffer holding the value until it is asked for, see MappedScanner
+  private int offset;
+  private int length;
 
   // Getter for the token type
   public TokenType getType() {
     return type;
   }
 
-  // Getter for the token value
+  // Getter for the token value, decoded from the source buffer the first time
   public String getValue() {
+    if (value == null && lexeme != null)
+      value = lexeme.getText();
+    if (value == null && source != null) {
+      byte[] bytes = new byte[length];
+      for (int i = 0; i < length; i++)
+        bytes[i] = source.get(offset + i);
+      value = new String(bytes, StandardCharsets.UTF_8);
+      source = null;
+    }
     return value;
   }
 
@@ -24,6 +40,21 @@ public class Token {
   public void setValue(String value) {
     this.value = value;
   }
+
+  public Lexeme getLexeme() {
+    return lexeme;
+  }
+
+  void setLexeme(Lexeme lexeme) {
+    this.lexeme = lexeme;
+  }
+
+  // The value is the length bytes of source at offset
+  void setSource(ByteBuffer source, int offset, int length) {
+    this.source = source;
+    this.offset = offset;
+    this.length = length;
+  }
 }
 
 // Enum representing the types of tokens recognized by the scanner
@@ -0,0 +1,75 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Tokens of a whole source file packed in parallel arrays for the parser.
+// Token i has the kind kinds[i], the ordinal of its TokenType, and the code codes[i]:
+// the ordinal of its Lexeme for the reserved words and operators (NO_LEXEME for an
+// operator the parser does not know), and the id of its text in the symbol table for
+// the identifiers, integers and strings. Equal texts share one String, so the parser
+// compares ints and the tree holds each name once.
+class TokenStream {
+  public static final int EOF = -1; // Kind past the last token
+  public static final int NO_LEXEME = -1;
+
+  private int[] kinds = new int[256];
+  private int[] codes = new int[256];
+  private int size = 0;
+
+  private final Map<String, Integer> symbolIds = new HashMap<String, Integer>();
+  private final List<String> symbols = new ArrayList<String>();
+
+  // Reads all the tokens of the scanner but the deleted ones
+  public TokenStream(Scanner scanner) {
+    for (Token token = scanner.readNextToken(); token != null; token = scanner.readNextToken()) {
+      if (token.getType() == TokenType.DELETE)
+        continue;
+      int code;
+      if (token.getType() == TokenType.RESERVED || token.getType() == TokenType.OPERATOR)
+        code = token.getLexeme() == null ? NO_LEXEME : token.getLexeme().ordinal();
+      else if (token.getType() == TokenType.IDENTIFIER || token.getType() == TokenType.INTEGER
+          || token.getType() == TokenType.STRING)
+        code = intern(token.getValue());
+      else
+        code = 0;
+      add(token.getType().ordinal(), code);
+    }
+  }
+
+  private void add(int kind, int code) {
+    if (size == kinds.length) {
+      kinds = Arrays.copyOf(kinds, size * 2);
+      codes = Arrays.copyOf(codes, size * 2);
+    }
+    kinds[size] = kind;
+    codes[size] = code;
+    size++;
+  }
+
+  private int intern(String text) {
+    Integer id = symbolIds.get(text);
+    if (id == null) {
+      id = symbols.size();
+      symbolIds.put(text, id);
+      symbols.add(text);
+    }
+    return id;
+  }
+
+  public int kind(int index) {
+    return index < size ? kinds[index] : EOF;
+  }
+
+  public int code(int index) {
+    return codes[index];
+  }
+
+  // Text of the identifier, integer or string
+  public String symbol(int index) {
+    return symbols.get(codes[index]);
+  }
+}
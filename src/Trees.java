@@ -0,0 +1,99 @@
+package src;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+// Helpers on the standardized tree shared by the optimization passes run before the
+// deltas are created: the Inliner, the LambdaLifter, the Simplifier and the
+// SubexpressionEliminator.
+final class Trees {
+
+  private Trees() {
+  }
+
+  // Adds the names occurring free in the subtree to freeNames
+  static void freeVariables(ASTNode node, Set<String> freeNames) {
+    freeVariables(node, new ArrayList<String>(), freeNames);
+  }
+
+  private static void freeVariables(ASTNode node, List<String> bound, Set<String> freeNames) {
+    if (node.getType() == ASTNodeType.IDENTIFIER) {
+      if (!bound.contains(node.getValue()))
+        freeNames.add(node.getValue());
+      return;
+    }
+    int numBound = 0;
+    if (node.getType() == ASTNodeType.LAMBDA) {
+      for (ASTNode name : parameterNames(node.getChild())) {
+        bound.add(name.getValue());
+        numBound++;
+      }
+    }
+    for (ASTNode child = firstExpression(node); child != null; child = child.getSibling())
+      freeVariables(child, bound, freeNames);
+    for (int i = 0; i < numBound; i++)
+      bound.remove(bound.size() - 1);
+  }
+
+  // First child that is an expression: the parameter of a lambda is not
+  static ASTNode firstExpression(ASTNode node) {
+    if (node.getType() == ASTNodeType.LAMBDA)
+      return node.getChild().getSibling();
+    return node.getChild();
+  }
+
+  // Identifiers bound by the parameter of a lambda, a name or a comma of names
+  static List<ASTNode> parameterNames(ASTNode parameter) {
+    List<ASTNode> names = new ArrayList<ASTNode>();
+    if (parameter.getType() == ASTNodeType.IDENTIFIER)
+      names.add(parameter);
+    else
+      for (ASTNode name = parameter.getChild(); name != null; name = name.getSibling())
+        names.add(name);
+    return names;
+  }
+
+  static boolean disjoint(Set<String> names1, Set<String> names2) {
+    for (String name : names1)
+      if (names2.contains(name))
+        return false;
+    return true;
+  }
+
+  // Whether evaluating the value cannot fail, print or loop: a literal, an identifier,
+  // a lambda, a rec function or a tuple of them. Only such a value can be left
+  // unevaluated or evaluated at another time than where it stands.
+  static boolean cannotFail(ASTNode node) {
+    if (node.getType() == ASTNodeType.LAMBDA || node.getType() == ASTNodeType.IDENTIFIER
+        || Constant.isConstant(node) || isRecFunction(node))
+      return true;
+    if (node.getType() != ASTNodeType.TAU)
+      return false;
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      if (!cannotFail(child))
+        return false;
+    return true;
+  }
+
+  // A rec function only applies Y* to its lambda
+  static boolean isRecFunction(ASTNode node) {
+    return node.getType() == ASTNodeType.GAMMA && node.getChild().getType() == ASTNodeType.YSTAR
+        && node.getChild().getSibling().getType() == ASTNodeType.LAMBDA;
+  }
+
+  // Number of nodes of the subtree
+  static int size(ASTNode node) {
+    int size = 1;
+    for (ASTNode child = node.getChild(); child != null; child = child.getSibling())
+      size += size(child);
+    return size;
+  }
+
+  // The node takes the place of the replacement, keeping its own sibling
+  static void replace(ASTNode node, ASTNode replacement) {
+    node.setType(replacement.getType());
+    node.setValue(replacement.getValue());
+    node.setChild(replacement.getChild());
+  }
+}
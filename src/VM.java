@@ -0,0 +1,246 @@
+package src;
+
+import java.util.Arrays;
+
+// Virtual machine running the bytecode produced by the Compiler.
+// A single dispatch loop executes the code of the current delta; applications push
+// a frame (code, pc, environment) on a heap-allocated frame stack and RETURN pops
+// it, so like the CSE machine the RPAL recursion depth is only limited by the heap.
+public class VM {
+  // Code run when an eta closure is applied (CSE rule 13): the stack holds the
+  // rand, the eta and its closure; applying the closure to the eta gives the
+  // function that is then applied to the rand.
+  private static final CodeBlock etaBlock = new CodeBlock(null,
+      new int[] { Opcode.APPLY, Opcode.TAIL_APPLY, Opcode.RETURN }, new Value[0], 3);
+
+  private CodeBlock[] blocks; // Compiled deltas indexed by the delta index
+  private CodeBlock rootBlock;
+
+  private Value[] stack; // Operand stack
+  private int sp; // Number of values on the operand stack
+
+  private CodeBlock[] frameBlocks; // Frame stack of the callers, saved on each application
+  private int[] framePcs;
+  private Environment[] frameEnvironments;
+  private int frameCount;
+
+  private Jit jit; // Compiles hot deltas to JVM code, null when the VM only interprets
+
+  public VM(AST ast) {
+    this(ast, false);
+  }
+
+  public VM(AST ast, boolean jitEnabled) {
+    if (!ast.isStandardized())
+      throw new RuntimeException("AST is not standardized!");
+    Delta rootDelta = ast.createDeltas();
+    blocks = new Compiler().compile(rootDelta);
+    rootBlock = blocks[rootDelta.getIndex()];
+
+    stack = new Value[256];
+    frameBlocks = new CodeBlock[64];
+    framePcs = new int[64];
+    frameEnvironments = new Environment[64];
+    if (jitEnabled)
+      jit = new Jit(this);
+  }
+
+  // evaluating the program
+  public void evaluateProgram() {
+    execute(rootBlock, new Environment(null, 0), 0);
+  }
+
+  // Interprets a delta applied from compiled code and gives its value
+  Value call(CodeBlock block, Environment env) {
+    execute(block, env, frameCount);
+    return stack[--sp];
+  }
+
+  CodeBlock getBlock(int deltaIndex) {
+    return blocks[deltaIndex];
+  }
+
+  // Runs the code until the frame stack is back to baseFrameCount frames
+  private void execute(CodeBlock block, Environment env, int baseFrameCount) {
+    int[] code = block.getCode();
+    Value[] constants = block.getConstants();
+    int pc = 0;
+    ensureStack(block.getMaxStackDepth());
+
+    while (true) {
+      int opcode = code[pc++];
+      switch (opcode) {
+        case Opcode.CONST:
+          stack[sp++] = constants[code[pc++]];
+          break;
+        case Opcode.LOAD_LOCAL:
+          stack[sp++] = env.lookup(0, code[pc++]);
+          break;
+        case Opcode.LOAD:
+          int depth = code[pc++];
+          stack[sp++] = env.lookup(depth, code[pc++]);
+          break;
+        case Opcode.CLOSURE:
+          stack[sp++] = Closure.capture(blocks[code[pc++]].getDelta(), env);
+          break;
+        case Opcode.TUPLE:
+          int numElements = code[pc++];
+          Value[] elements = new Value[numElements];
+          for (int i = 0; i < numElements; i++)
+            elements[i] = stack[--sp];
+          stack[sp++] = new Tuple(elements);
+          break;
+        case Opcode.APPLY:
+        case Opcode.TAIL_APPLY:
+          Value rator = stack[--sp];
+          Value rand = stack[--sp];
+          switch (rator.getType()) {
+            case CLOSURE:
+              Closure closure = (Closure) rator;
+              Environment newEnv = closure.bind(rand);
+              CodeBlock target = blocks[closure.getDelta().getIndex()];
+              if (jit != null && jit.useCompiledCode(target)) {
+                Value result = jit.runCompiledCode(target, newEnv);
+                stack[sp++] = result;
+                break;
+              }
+              if (opcode == Opcode.APPLY)
+                pushFrame(block, pc, env);
+              block = target;
+              code = block.getCode();
+              constants = block.getConstants();
+              pc = 0;
+              env = newEnv;
+              ensureStack(block.getMaxStackDepth());
+              break;
+            case YSTAR:
+              stack[sp++] = ((Closure) rand).fix(); // CSE rule 12
+              break;
+            case ETA:
+              stack[sp++] = rand;
+              stack[sp++] = rator;
+              stack[sp++] = ((Eta) rator).getClosure();
+              if (opcode == Opcode.APPLY)
+                pushFrame(block, pc, env);
+              block = etaBlock;
+              code = block.getCode();
+              constants = block.getConstants();
+              pc = 0;
+              break;
+            case TUPLE:
+              stack[sp++] = Primitives.select((Tuple) rator, rand);
+              break;
+            case BUILTIN:
+              stack[sp++] = Primitives.applyBuiltin((Builtin) rator, rand);
+              break;
+            default:
+              throw new RuntimeException("Cannot apply a " + rator.getType() + " value");
+          }
+          break;
+        case Opcode.RETURN:
+          if (frameCount == baseFrameCount)
+            return;
+          frameCount--;
+          block = frameBlocks[frameCount];
+          code = block.getCode();
+          constants = block.getConstants();
+          pc = framePcs[frameCount];
+          env = frameEnvironments[frameCount];
+          frameBlocks[frameCount] = null;
+          frameEnvironments[frameCount] = null;
+          break;
+        case Opcode.JUMP:
+          pc = code[pc];
+          break;
+        case Opcode.JUMP_IF_FALSE:
+          int target = code[pc++];
+          if (stack[--sp] != TruthValue.TRUE)
+            pc = target;
+          break;
+        case Opcode.NOT:
+          stack[sp - 1] = TruthValue.of(stack[sp - 1] != TruthValue.TRUE);
+          break;
+        case Opcode.NEG:
+          stack[sp - 1] = IntegerValue.of(-integerAt(sp - 1));
+          break;
+        case Opcode.EQ:
+          sp--;
+          stack[sp - 1] = TruthValue.of(Primitives.equal(stack[sp], stack[sp - 1]));
+          break;
+        case Opcode.NE:
+          sp--;
+          stack[sp - 1] = TruthValue.of(!Primitives.equal(stack[sp], stack[sp - 1]));
+          break;
+        case Opcode.OR:
+          sp--;
+          stack[sp - 1] = TruthValue.of(truthAt(sp) || truthAt(sp - 1));
+          break;
+        case Opcode.AND:
+          sp--;
+          stack[sp - 1] = TruthValue.of(truthAt(sp) && truthAt(sp - 1));
+          break;
+        case Opcode.AUG:
+          sp--;
+          stack[sp - 1] = Primitives.aug(stack[sp], stack[sp - 1]);
+          break;
+        default:
+          sp--;
+          stack[sp - 1] = integerOperation(opcode, integerAt(sp), integerAt(sp - 1));
+          break;
+      }
+    }
+  }
+
+  // processing for the arithmetic and relational operators, rand1 was on top of the stack
+  private Value integerOperation(int opcode, long rand1, long rand2) {
+    switch (opcode) {
+      case Opcode.ADD:
+        return IntegerValue.of(rand1 + rand2);
+      case Opcode.SUB:
+        return IntegerValue.of(rand1 - rand2);
+      case Opcode.MUL:
+        return IntegerValue.of(rand1 * rand2);
+      case Opcode.DIV:
+        return IntegerValue.of(rand1 / rand2);
+      case Opcode.EXP:
+        return IntegerValue.of(Primitives.power(rand1, rand2));
+      case Opcode.LS:
+        return TruthValue.of(rand1 < rand2);
+      case Opcode.LE:
+        return TruthValue.of(rand1 <= rand2);
+      case Opcode.GR:
+        return TruthValue.of(rand1 > rand2);
+      case Opcode.GE:
+        return TruthValue.of(rand1 >= rand2);
+      default:
+        throw new RuntimeException("Unknown opcode: " + opcode);
+    }
+  }
+
+  private long integerAt(int index) {
+    return ((IntegerValue) stack[index]).getInt();
+  }
+
+  private boolean truthAt(int index) {
+    return ((TruthValue) stack[index]).getBoolean();
+  }
+
+  private void pushFrame(CodeBlock block, int pc, Environment env) {
+    if (frameCount == frameBlocks.length) {
+      int newLength = frameCount * 2;
+      frameBlocks = Arrays.copyOf(frameBlocks, newLength);
+      framePcs = Arrays.copyOf(framePcs, newLength);
+      frameEnvironments = Arrays.copyOf(frameEnvironments, newLength);
+    }
+    frameBlocks[frameCount] = block;
+    framePcs[frameCount] = pc;
+    frameEnvironments[frameCount] = env;
+    frameCount++;
+  }
+
+  // Makes room for the operands of a delta, plus the three values pushed by an eta application
+  private void ensureStack(int maxStackDepth) {
+    if (sp + maxStackDepth + 3 > stack.length)
+      stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + maxStackDepth + 3));
+  }
+}
@@ -0,0 +1,484 @@
+package src;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Stack;
+
+// Base class for the runtime values handled by the CSE machine.
+// Values are immutable and kept apart from the AST nodes of the program.
+abstract class Value {
+  public abstract ValueType getType();
+
+  // Printable representation of the value, as used by Print
+  @Override
+  public abstract String toString();
+}
+
+// Contains the runtime value types
+enum ValueType {
+  INTEGER,
+  STRING,
+  TRUE,
+  FALSE,
+  DUMMY,
+  TUPLE,
+  CLOSURE,
+  ETA,
+  YSTAR,
+  BUILTIN;
+}
+
+// Class representing integer values, stored as a primitive long
+class IntegerValue extends Value {
+  private static final int CACHE_LOW = -128;
+  private static final int CACHE_HIGH = 1024;
+  private static final IntegerValue[] cache = new IntegerValue[CACHE_HIGH - CACHE_LOW + 1];
+
+  static {
+    for (int i = 0; i < cache.length; i++)
+      cache[i] = new IntegerValue(i + CACHE_LOW);
+  }
+
+  private final long value;
+
+  private IntegerValue(long value) {
+    this.value = value;
+  }
+
+  // Gives the integer value, sharing instances for small integers
+  public static IntegerValue of(long value) {
+    if (value >= CACHE_LOW && value <= CACHE_HIGH)
+      return cache[(int) value - CACHE_LOW];
+    return new IntegerValue(value);
+  }
+
+  public long getInt() {
+    return value;
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.INTEGER;
+  }
+
+  @Override
+  public String toString() {
+    return Long.toString(value);
+  }
+}
+
+// Class representing string values
+// A string is either a slice of a Java string or the concatenation of two strings.
+// Stem and Stern give slices sharing the characters, and Conc only links its two
+// operands; a concatenation is flattened once, the first time its characters are
+// needed, so string processing with Stem, Stern and Conc runs in linear time.
+class StringValue extends Value {
+  public static final StringValue EMPTY = new StringValue("");
+
+  private final String base; // Characters of a slice, null for a concatenation
+  private final int offset;
+  private final int length;
+  private final StringValue left; // Operands of a concatenation
+  private final StringValue right;
+  private volatile String flattened; // Characters of a concatenation, once needed
+
+  public StringValue(String value) {
+    this(value, 0, value.length());
+  }
+
+  private StringValue(String base, int offset, int length) {
+    this.base = base;
+    this.offset = offset;
+    this.length = length;
+    left = null;
+    right = null;
+  }
+
+  private StringValue(StringValue left, StringValue right) {
+    base = null;
+    offset = 0;
+    length = left.length + right.length;
+    this.left = left;
+    this.right = right;
+  }
+
+  // The string itself, or its printable representation for other values
+  public static StringValue valueOf(Value value) {
+    if (value instanceof StringValue)
+      return (StringValue) value;
+    return new StringValue(value.toString());
+  }
+
+  public static StringValue concat(StringValue left, StringValue right) {
+    if (left.length == 0)
+      return right;
+    if (right.length == 0)
+      return left;
+    return new StringValue(left, right);
+  }
+
+  public int length() {
+    return length;
+  }
+
+  // Characters from begin (inclusive) to end (exclusive), sharing this string's characters
+  public StringValue substring(int begin, int end) {
+    if (begin == 0 && end == length)
+      return this;
+    if (begin == end)
+      return EMPTY;
+    return new StringValue(characters(), offset + begin, end - begin);
+  }
+
+  // Position of the first occurrence of other, -1 if there is none
+  public int indexOf(StringValue other) {
+    String text = characters();
+    String pattern = other.toString();
+    int index = text.indexOf(pattern, offset);
+    if (index < 0 || index + pattern.length() > offset + length)
+      return -1;
+    return index - offset;
+  }
+
+  public boolean contentEquals(StringValue other) {
+    if (length != other.length)
+      return false;
+    return characters().regionMatches(offset, other.characters(), other.offset, length);
+  }
+
+  public String getString() {
+    return toString();
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.STRING;
+  }
+
+  @Override
+  public String toString() {
+    String text = characters();
+    if (offset == 0 && length == text.length())
+      return text;
+    return text.substring(offset, offset + length);
+  }
+
+  // Java string holding the characters of this string from offset
+  private String characters() {
+    if (base != null)
+      return base;
+    String text = flattened;
+    if (text == null) {
+      text = flatten();
+      flattened = text;
+    }
+    return text;
+  }
+
+  // Collects the slices of a concatenation from left to right, without recursion
+  // since a string built one character at a time is a deep chain of concatenations
+  private String flatten() {
+    StringBuilder builder = new StringBuilder(length);
+    ArrayDeque<StringValue> pending = new ArrayDeque<StringValue>();
+    pending.push(this);
+    while (!pending.isEmpty()) {
+      StringValue string = pending.pop();
+      String text = string.base != null ? string.base : string.flattened;
+      if (text != null)
+        builder.append(text, string.offset, string.offset + string.length);
+      else {
+        pending.push(string.right);
+        pending.push(string.left);
+      }
+    }
+    return builder.toString();
+  }
+}
+
+// Class representing the truth values, only the two shared instances exist
+class TruthValue extends Value {
+  public static final TruthValue TRUE = new TruthValue(true);
+  public static final TruthValue FALSE = new TruthValue(false);
+
+  private final boolean value;
+
+  private TruthValue(boolean value) {
+    this.value = value;
+  }
+
+  public static TruthValue of(boolean value) {
+    return value ? TRUE : FALSE;
+  }
+
+  public boolean getBoolean() {
+    return value;
+  }
+
+  @Override
+  public ValueType getType() {
+    return value ? ValueType.TRUE : ValueType.FALSE;
+  }
+
+  @Override
+  public String toString() {
+    return value ? "true" : "false";
+  }
+}
+
+// Class representing dummy, only the shared instance exists
+class DummyValue extends Value {
+  public static final DummyValue DUMMY = new DummyValue();
+
+  private DummyValue() {
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.DUMMY;
+  }
+
+  @Override
+  public String toString() {
+    return "dummy";
+  }
+}
+
+// Class representing tuples
+// Tuples are persistent: a tuple is a prefix of a shared buffer whose elements are
+// never changed once written. aug writes into the free space after the buffer's
+// longest tuple and gives a longer prefix, so building a tuple with aug is amortized
+// O(1) per element; only appending to a shorter prefix copies it to a new buffer.
+class Tuple extends Value {
+  public static final Tuple NIL = new Tuple(new Value[0]);
+
+  private final Buffer buffer;
+  private final int size;
+
+  public Tuple(Value[] elements) {
+    this(new Buffer(elements, elements.length), elements.length);
+  }
+
+  private Tuple(Buffer buffer, int size) {
+    this.buffer = buffer;
+    this.size = size;
+  }
+
+  // Number of elements in the tuple
+  public int size() {
+    return size;
+  }
+
+  // Taking nth element of the tuple, index starting from 1
+  public Value get(int n) {
+    if (n < 1 || n > size)
+      return null;
+    return buffer.elements[n - 1];
+  }
+
+  // Gives a new tuple with the given element appended, leaving this one untouched
+  public Tuple append(Value element) {
+    synchronized (buffer) {
+      if (buffer.length == size && size < buffer.elements.length) {
+        buffer.elements[size] = element;
+        buffer.length++;
+        return new Tuple(buffer, size + 1);
+      }
+    }
+    Value[] augmented = new Value[Math.max(4, size * 2)];
+    System.arraycopy(buffer.elements, 0, augmented, 0, size);
+    augmented[size] = element;
+    return new Tuple(new Buffer(augmented, size + 1), size + 1);
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.TUPLE;
+  }
+
+  @Override
+  public String toString() {
+    if (size == 0)
+      return "nil";
+
+    String printValue = "(";
+    for (int i = 0; i < size - 1; i++)
+      printValue += buffer.elements[i] + ", ";
+    printValue += buffer.elements[size - 1] + ")";
+    return printValue;
+  }
+
+  // Elements shared by the tuples, length of them are in use
+  private static class Buffer {
+    final Value[] elements;
+    int length;
+
+    Buffer(Value[] elements, int length) {
+      this.elements = elements;
+      this.length = length;
+    }
+  }
+}
+
+// Class representing a lambda closure: a delta together with the values of its free variables
+class Closure extends Value {
+  private final Delta delta;
+  private final Environment environment;
+  private boolean fixedPoint; // Built by fix for a rec function, see Memoizer
+
+  public Closure(Delta delta, Environment environment) {
+    this.delta = delta;
+    this.environment = environment;
+  }
+
+  // CSE rule 2: the closure copies the values of the free variables of the delta
+  // from the current environment instead of keeping the whole environment chain
+  public static Closure capture(Delta delta, Environment current) {
+    List<Variable> freeVariables = delta.getFreeVariables();
+    if (freeVariables.isEmpty())
+      return new Closure(delta, null);
+    Environment captured = new Environment(null, freeVariables.size());
+    for (int i = 0; i < freeVariables.size(); i++) {
+      Variable variable = freeVariables.get(i);
+      captured.bind(i, current.lookup(variable.getDepth(), variable.getSlot()));
+    }
+    return new Closure(delta, captured);
+  }
+
+  public Delta getDelta() {
+    return delta;
+  }
+
+  public Environment getEnvironment() {
+    return environment;
+  }
+
+  public boolean isFixedPoint() {
+    return fixedPoint;
+  }
+
+  // Applies Y* to this closure. When the body of its delta is a lambda, as for any
+  // rec function, the result is the closure of that lambda with the recursive name
+  // bound to the closure itself, so a recursive call costs the same as any other call.
+  // Other bodies give an eta closure (CSE rule 12).
+  public Value fix() {
+    Stack<ASTNode> body = delta.getBody();
+    if (delta.getBoundVars().size() != 1 || body.size() != 1 || body.get(0).getType() != ASTNodeType.DELTA)
+      return new Eta(this);
+    Delta recursiveDelta = (Delta) body.get(0);
+    Closure recursive = capture(recursiveDelta, new Environment(environment, 1));
+    List<Variable> freeVariables = recursiveDelta.getFreeVariables();
+    for (int i = 0; i < freeVariables.size(); i++)
+      if (freeVariables.get(i).getDepth() == 0)
+        recursive.environment.bind(i, recursive); // the recursive name, captured before it was bound
+    recursive.fixedPoint = true;
+    return recursive;
+  }
+
+  // Gives the environment for applying this closure to rand (CSE rules 4 and 11)
+  public Environment bind(Value rand) {
+    int numBoundVars = delta.getBoundVars().size();
+    Environment newEnv = new Environment(environment, numBoundVars);
+    if (numBoundVars == 1)
+      newEnv.bind(0, rand);
+    else {
+      Tuple tuple = (Tuple) rand;
+      for (int i = 0; i < numBoundVars; i++)
+        newEnv.bind(i, tuple.get(i + 1));
+    }
+    return newEnv;
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.CLOSURE;
+  }
+
+  @Override
+  public String toString() {
+    return "[lambda closure: " + delta.getBoundVars().get(0) + ": " + delta.getIndex() + "]";
+  }
+}
+
+// Class representing Eta closures, produced by applying Y* to a closure
+class Eta extends Value {
+  private final Closure closure;
+
+  public Eta(Closure closure) {
+    this.closure = closure;
+  }
+
+  public Closure getClosure() {
+    return closure;
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.ETA;
+  }
+
+  @Override
+  public String toString() {
+    Delta delta = closure.getDelta();
+    return "[eta closure: " + delta.getBoundVars().get(0) + ": " + delta.getIndex() + "]";
+  }
+}
+
+// Class representing the Y* combinator, only the shared instance exists
+class YStar extends Value {
+  public static final YStar YSTAR = new YStar();
+
+  private YStar() {
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.YSTAR;
+  }
+
+  @Override
+  public String toString() {
+    return "Y*";
+  }
+}
+
+// Class representing the built-in functions such as Print or Order
+// Conc takes two arguments: applied to the first one it gives a Builtin holding it.
+class Builtin extends Value {
+  private final String name;
+  private final Intrinsic intrinsic;
+  private final Value firstArgument;
+
+  public Builtin(String name) {
+    this(name, null);
+  }
+
+  public Builtin(String name, Value firstArgument) {
+    this.name = name;
+    this.intrinsic = Intrinsic.forName(name);
+    this.firstArgument = firstArgument;
+    if (intrinsic == null)
+      throw new RuntimeException("Unknown built-in function: " + name);
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public Intrinsic getIntrinsic() {
+    return intrinsic;
+  }
+
+  public Value getFirstArgument() {
+    return firstArgument;
+  }
+
+  @Override
+  public ValueType getType() {
+    return ValueType.BUILTIN;
+  }
+
+  @Override
+  public String toString() {
+    return name;
+  }
+}